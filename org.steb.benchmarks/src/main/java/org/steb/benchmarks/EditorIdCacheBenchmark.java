@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.steb.EditorIdCache;
+
+/**
+ * Resolution of the editor to open a file with, as EclipseEditorHelper does it for every file. The resolver stands in
+ * for the editor registry and is only asked on a cache miss.
+ * 
+ * @author kgilmer
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditorIdCacheBenchmark {
+
+	private static final String DEFAULT_EDITOR = "org.eclipse.ui.DefaultTextEditor";
+
+	private static final String[] EXTENSIONS = { ".java", ".xml", ".c", ".h", ".py", ".js", ".md", ".txt", ".properties", "" };
+
+	private static final EditorIdCache.Resolver RESOLVER = new EditorIdCache.Resolver() {
+
+		public String resolve(String fileName) {
+			return fileName.endsWith(".java") ? "org.eclipse.jdt.ui.CompilationUnitEditor" : DEFAULT_EDITOR;
+		}
+	};
+
+	private EditorIdCache cache;
+	private String[] names;
+	private int next;
+
+	@Setup
+	public void setup() {
+		cache = new EditorIdCache(DEFAULT_EDITOR);
+		cache.setOverrides("org.example.SlowEditor");
+		names = new String[1024];
+
+		for (int i = 0; i < names.length; ++i) {
+			names[i] = "File" + i + EXTENSIONS[i % EXTENSIONS.length];
+			cache.getEditorId(cache.keyFor(names[i], null), names[i], RESOLVER);
+		}
+	}
+
+	private String nextName() {
+		next = (next + 1) & (names.length - 1);
+		return names[next];
+	}
+
+	@Benchmark
+	public String hit() {
+		String name = nextName();
+
+		return cache.getEditorId(cache.keyFor(name, null), name, RESOLVER);
+	}
+
+	@Benchmark
+	public String hitWithContentType() {
+		String name = nextName();
+
+		return cache.getEditorId(cache.keyFor(name, "org.eclipse.core.runtime.text"), name, RESOLVER);
+	}
+
+	@Benchmark
+	public String miss() {
+		String name = nextName();
+
+		cache.clear();
+		return cache.getEditorId(cache.keyFor(name, null), name, RESOLVER);
+	}
+}
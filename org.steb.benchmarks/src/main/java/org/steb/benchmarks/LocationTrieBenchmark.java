@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.steb.LocationTrie;
+
+/**
+ * Location to resource resolution as ResourceLocationIndex does it, against a synthetic workspace: projects spread
+ * over a few parent directories, each with a linked folder at a location of its own. Values are the workspace paths
+ * of the containers, standing in for IContainer.
+ * 
+ * @author kgilmer
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationTrieBenchmark {
+
+	private static final int LOOKUPS = 1024;
+
+	/**
+	 * Number of projects in the workspace.
+	 */
+	@Param({ "10", "1000", "10000" })
+	public int projects;
+
+	private LocationTrie<String> trie;
+	private String[] files;
+	private String[] outside;
+	private int next;
+
+	@Setup
+	public void setup() {
+		trie = build(projects);
+		files = new String[LOOKUPS];
+		outside = new String[LOOKUPS];
+
+		for (int i = 0; i < LOOKUPS; ++i) {
+			int project = (i * 7919) % projects;
+
+			if (i % 4 == 0) {
+				files[i] = "/data/shared/project" + project + "/include/header" + i + ".h";
+			} else {
+				files[i] = projectLocation(project) + "/src/main/java/org/example/module" + (i % 13) + "/File" + i + ".java";
+			}
+			outside[i] = "/tmp/scratch/session" + i + "/notes.txt";
+		}
+	}
+
+	private static String projectLocation(int project) {
+		return "/home/dev/src/group" + (project % 32) + "/project" + project;
+	}
+
+	private static LocationTrie<String> build(int projects) {
+		LocationTrie<String> trie = new LocationTrie<String>();
+
+		trie.put(segments("/home/dev/workspace"), "/");
+		for (int p = 0; p < projects; ++p) {
+			trie.put(segments(projectLocation(p)), "/project" + p);
+			trie.put(segments("/data/shared/project" + p + "/include"), "/project" + p + "/include");
+		}
+
+		return trie;
+	}
+
+	/**
+	 * Same segments as IPath.segments() of an absolute location.
+	 * 
+	 * @param location
+	 * @return the segments.
+	 */
+	private static String[] segments(String location) {
+		List<String> result = new ArrayList<String>();
+
+		for (String segment : location.split("/")) {
+			if (segment.length() > 0) {
+				result.add(segment);
+			}
+		}
+
+		return result.toArray(new String[result.size()]);
+	}
+
+	private int nextIndex() {
+		next = (next + 1) & (LOOKUPS - 1);
+		return next;
+	}
+
+	@Benchmark
+	public LocationTrie.Match<String> resolve() {
+		return trie.findLongestPrefix(segments(files[nextIndex()]));
+	}
+
+	@Benchmark
+	public LocationTrie.Match<String> resolveOutsideWorkspace() {
+		return trie.findLongestPrefix(segments(outside[nextIndex()]));
+	}
+
+	@Benchmark
+	public LocationTrie<String> rebuild() {
+		return build(projects);
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.steb.RequestParser;
+import org.steb.StebRequest;
+
+/**
+ * Parsing of the request lines the listener receives. Every path names a real file so the existence checks the
+ * parser makes hit the file system the way they do in steb.
+ * 
+ * @author kgilmer
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParserBenchmark {
+
+	private static final int BATCH_SIZE = 64;
+
+	private File directory;
+	private String openLine;
+	private String compareLine;
+	private String projectLine;
+	private List<String> batch;
+
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("steb-bench").toFile();
+		batch = new ArrayList<String>(BATCH_SIZE);
+
+		for (int i = 0; i < BATCH_SIZE; ++i) {
+			File file = new File(directory, "File" + i + ".java");
+			file.createNewFile();
+			batch.add(file.getAbsolutePath());
+		}
+
+		openLine = batch.get(0);
+		compareLine = "-c " + batch.get(0) + " " + batch.get(1);
+		projectLine = "-p -r " + directory.getAbsolutePath();
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public StebRequest open() {
+		return RequestParser.parse(openLine, null, null);
+	}
+
+	@Benchmark
+	public StebRequest compare() {
+		return RequestParser.parse(compareLine, null, null);
+	}
+
+	@Benchmark
+	public StebRequest project() {
+		return RequestParser.parse(projectLine, null, null);
+	}
+
+	@Benchmark
+	public StebRequest batch() {
+		return RequestParser.parseBatch(batch);
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * The listener consumes the leading NUL byte of a framed client, so streams here start at the version.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class FrameDecoderTest {
+
+	private static final String STREAM = "STEB/1\0o\0/a b/c.txt\0/d\ne\0\0c\0/x\0/y\0\0p\0/q r\0\0\0";
+
+	private static final List<String> REQUESTS = Arrays.asList("o[/a b/c.txt, /d\ne]", "c[/x, /y]", "p[/q r]");
+
+	private final List<String> requests = new ArrayList<String>();
+
+	private final FrameDecoder decoder = new FrameDecoder(new FrameDecoder.Handler() {
+
+		public void request(String command, List<String> fields) {
+			requests.add(command + fields);
+		}
+	});
+
+	/**
+	 * Feed bytes to the decoder the way the listener does, through a buffer that is reused for every read.
+	 */
+	private void feed(byte[] bytes, int chunk) {
+		ByteBuffer buffer = ByteBuffer.allocate(Math.max(chunk, 1));
+
+		for (int i = 0; i < bytes.length; i += chunk) {
+			buffer.clear();
+			buffer.put(bytes, i, Math.min(chunk, bytes.length - i));
+			buffer.flip();
+			decoder.decode(buffer);
+			assertFalse(buffer.hasRemaining());
+		}
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(Charset.defaultCharset());
+	}
+
+	@Test
+	public void decodesRequestsInOneRead() {
+		feed(bytes(STREAM), STREAM.length());
+
+		assertEquals(REQUESTS, requests);
+		assertTrue(decoder.isEnded());
+	}
+
+	@Test
+	public void decodesFieldsSplitAcrossReads() {
+		for (int chunk = 1; chunk < STREAM.length(); ++chunk) {
+			FrameDecoderTest test = new FrameDecoderTest();
+			test.feed(bytes(STREAM), chunk);
+
+			assertEquals(REQUESTS, test.requests, "chunk size " + chunk);
+			assertTrue(test.decoder.isEnded());
+		}
+	}
+
+	@Test
+	public void rejectsOtherVersions() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, new Executable() {
+
+			public void execute() {
+				feed(bytes("STEB/2\0o\0/a\0\0"), 64);
+			}
+		});
+
+		assertTrue(e.getMessage().contains("STEB/2"));
+		assertTrue(requests.isEmpty());
+	}
+
+	@Test
+	public void rejectsOversizedFields() {
+		byte[] field = new byte[64 * 1024 + 1];
+		Arrays.fill(field, (byte) 'a');
+
+		feed(bytes("STEB/1\0o\0"), 64);
+		assertThrows(IllegalArgumentException.class, new Executable() {
+
+			public void execute() {
+				feed(field, 4096);
+			}
+		});
+	}
+
+	@Test
+	public void ignoresBytesAfterTheEnd() {
+		feed(bytes("STEB/1\0o\0/z\0\0\0o\0/junk\0\0"), 64);
+
+		assertEquals(Arrays.asList("o[/z]"), requests);
+		assertTrue(decoder.isEnded());
+	}
+
+	@Test
+	public void finishCarriesOutAnUnterminatedRequest() {
+		feed(bytes("STEB/1\0o\0/a\0/b"), 64);
+		assertTrue(requests.isEmpty());
+
+		decoder.finish();
+
+		assertEquals(Arrays.asList("o[/a, /b]"), requests);
+		assertTrue(decoder.isEnded());
+	}
+
+	@Test
+	public void tellsWhetherAFieldIsIncomplete() {
+		assertFalse(decoder.isBetweenFields());
+
+		feed(bytes("STEB/1\0o\0/a"), 64);
+		assertFalse(decoder.isBetweenFields());
+
+		feed(bytes("/b\0"), 64);
+		assertTrue(decoder.isBetweenFields());
+	}
+}
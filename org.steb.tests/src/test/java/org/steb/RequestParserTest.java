@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author kgilmer
+ * 
+ */
+public class RequestParserTest {
+
+	@TempDir
+	Path temp;
+
+	private File real;
+	private File link;
+
+	@BeforeEach
+	public void createTree() throws IOException {
+		real = Files.createDirectories(temp.resolve("real/sub")).toFile().getParentFile().getCanonicalFile();
+		Files.createFile(real.toPath().resolve("a.txt"));
+		link = Files.createSymbolicLink(temp.resolve("link"), real.toPath()).toFile();
+	}
+
+	private static List<String> fields(String... paths) {
+		return new ArrayList<String>(Arrays.asList(paths));
+	}
+
+	private static List<File> files(File directory, String... names) {
+		List<File> files = new ArrayList<File>();
+		for (String name : names) {
+			files.add(new File(directory, name));
+		}
+		return files;
+	}
+
+	@Test
+	public void resolvesRelativePathsAgainstTheClientDirectory() {
+		StebRequest request = RequestParser.parseFields(RequestParser.OPEN_COMMAND, fields("a.txt", "sub/../new file.txt"), link, null, null);
+
+		assertEquals(StebRequest.Type.OPEN, request.getType());
+		assertEquals(files(real, "a.txt", "new file.txt"), request.getFiles());
+	}
+
+	@Test
+	public void canonicalizesAbsolutePaths() {
+		String path = link.getPath() + "/sub/../a.txt";
+
+		assertEquals(files(real, "a.txt"), RequestParser.parseFields(RequestParser.OPEN_COMMAND, fields(path), null, null, null).getFiles());
+		assertEquals(files(real, "a.txt"), RequestParser.parseFields(RequestParser.OPEN_COMMAND, fields(path), temp.toFile(), null, null).getFiles());
+	}
+
+	@Test
+	public void keepsRelativePathsWorkspaceRelativeWithoutADirectory() {
+		StebRequest request = RequestParser.parseFields(RequestParser.OPEN_COMMAND, fields("project/src/A.java"), null, null, null);
+
+		assertEquals(Arrays.asList(new File("project/src/A.java")), request.getFiles());
+	}
+
+	@Test
+	public void skipsDirectoriesWhenOpening() {
+		StebRequest request = RequestParser.parseFields(RequestParser.OPEN_COMMAND, fields("sub", "a.txt"), link, null, null);
+
+		assertEquals(files(real, "a.txt"), request.getFiles());
+	}
+
+	@Test
+	public void parsesProjects() {
+		StebRequest request = RequestParser.parseFields(RequestParser.NESTED_PROJECTS_COMMAND, fields("sub"), link, null, null);
+
+		assertEquals(StebRequest.Type.NESTED_PROJECTS, request.getType());
+		assertEquals(files(real, "sub"), request.getFiles());
+		assertThrows(IllegalArgumentException.class, new Executable() {
+
+			public void execute() {
+				RequestParser.parseFields(RequestParser.PROJECT_COMMAND, fields("a.txt"), link, null, null);
+			}
+		});
+	}
+
+	@Test
+	public void parsesCompares() {
+		StebRequest request = RequestParser.parseFields(RequestParser.COMPARE_COMMAND, fields("a.txt", real.getPath() + "/a.txt"), link, null, null);
+
+		assertEquals(StebRequest.Type.COMPARE, request.getType());
+		assertEquals(files(real, "a.txt", "a.txt"), request.getFiles());
+		assertThrows(IllegalArgumentException.class, new Executable() {
+
+			public void execute() {
+				RequestParser.parseFields(RequestParser.COMPARE_COMMAND, fields("a.txt"), link, null, null);
+			}
+		});
+		assertThrows(IllegalArgumentException.class, new Executable() {
+
+			public void execute() {
+				RequestParser.parseFields(RequestParser.COMPARE_COMMAND, fields("a.txt", "sub"), link, null, null);
+			}
+		});
+		assertThrows(IllegalArgumentException.class, new Executable() {
+
+			public void execute() {
+				RequestParser.parseFields(RequestParser.COMPARE_COMMAND, fields("a.txt", "missing.txt"), link, null, null);
+			}
+		});
+	}
+
+	@Test
+	public void rejectsUnknownCommands() {
+		assertThrows(IllegalArgumentException.class, new Executable() {
+
+			public void execute() {
+				RequestParser.parseFields("x", fields("a.txt"), link, null, null);
+			}
+		});
+	}
+}
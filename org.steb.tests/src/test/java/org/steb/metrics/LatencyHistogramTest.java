@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author kgilmer
+ * 
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void smallValuesHaveBucketsOfTheirOwn() {
+		for (int value = 0; value < 8; ++value) {
+			assertEquals(value, LatencyHistogram.index(value));
+			assertEquals(value, LatencyHistogram.upperBound(value));
+		}
+	}
+
+	@Test
+	public void everyValueFallsInsideItsBucket() {
+		for (long value = 1; value < 1L << 20; ++value) {
+			int index = LatencyHistogram.index(value);
+
+			assertTrue(LatencyHistogram.upperBound(index) >= value, "value " + value);
+			assertTrue(LatencyHistogram.upperBound(index - 1) < value, "value " + value);
+		}
+	}
+
+	@Test
+	public void bucketsAreWithinAnEighthOfTheirValues() {
+		for (long value = 8; value > 0 && value < Long.MAX_VALUE / 2; value = value * 3 + 1) {
+			long bound = LatencyHistogram.upperBound(LatencyHistogram.index(value));
+
+			assertTrue(bound - value <= value / 8, "value " + value);
+		}
+	}
+
+	@Test
+	public void largestValuesHaveABucket() {
+		int index = LatencyHistogram.index(Long.MAX_VALUE);
+
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(index));
+	}
+
+	@Test
+	public void percentilesAreBoundedByTheLargestValue() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(50));
+
+		for (int micros = 1; micros <= 1000; ++micros) {
+			histogram.record(micros * 1000L);
+		}
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000, histogram.getMax());
+		assertTrue(Math.abs(histogram.getPercentile(50) - 500) <= 500 / 8);
+		assertEquals(1000, histogram.getPercentile(100));
+	}
+}
@@ -29,23 +29,46 @@
 package org.steb;
 
 import java.io.IOException;
-import java.net.Socket;
+import java.lang.management.ManagementFactory;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.eclipse.core.commands.Command;
 import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Plugin;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.core.runtime.preferences.InstanceScope;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
+import org.eclipse.ui.IEditorRegistry;
+import org.eclipse.ui.IPropertyListener;
 import org.eclipse.ui.IStartup;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.commands.ICommandService;
+import org.eclipse.ui.editors.text.EditorsUI;
 import org.eclipse.ui.handlers.HandlerUtil;
 import org.eclipse.ui.preferences.ScopedPreferenceStore;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.steb.metrics.Metrics;
 import org.steb.preferences.PreferenceConstants;
 
 
@@ -57,10 +80,49 @@ import org.steb.preferences.PreferenceConstants;
 public class Activator extends Plugin implements IStartup, IPropertyChangeListener {
 	public static final String PLUGIN_ID = "org.steb";
 	private static int currentPort = 4404;
+
+	/**
+	 * Longest to wait for a stopped listener to release its port.
+	 */
+	private static final long LISTENER_STOP_TIMEOUT_MILLIS = 1000;
 	private volatile ScopedPreferenceStore preferenceStore;
 	private static Activator plugin;
 
 	private FileOpenListener listener;
+	private WorkspaceRegistry registry;
+	private final Job registryHeartbeat = new Job("steb registry heartbeat") {
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			WorkspaceRegistry current = registry;
+			if (current != null && listener != null) {
+				current.heartbeat();
+				schedule(WorkspaceRegistry.HEARTBEAT_SECONDS * 1000L);
+			}
+			return Status.OK_STATUS;
+		}
+	};
+	private ResourceLocationIndex locationIndex;
+	private ProjectCreationScheduler projectScheduler;
+	private EditorIdCache editorIdCache;
+
+	/**
+	 * Plug-ins that are installed, updated or removed may bring, fix or take away editors.
+	 */
+	private final BundleListener bundleListener = new BundleListener() {
+
+		public void bundleChanged(BundleEvent event) {
+			switch (event.getType()) {
+			case BundleEvent.INSTALLED:
+			case BundleEvent.UPDATED:
+			case BundleEvent.UNINSTALLED:
+				forgetFailedEditors();
+				break;
+			}
+		}
+	};
+	private IPropertyListener editorRegistryListener;
+	private volatile OpenEditorTracker openEditorTracker;
 	private Command toggleCommand;
 
 	/*
@@ -72,8 +134,29 @@ public class Activator extends Plugin implements IStartup, IPropertyChangeListen
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		locationIndex = new ResourceLocationIndex(ResourcesPlugin.getWorkspace());
+		locationIndex.install();
+		projectScheduler = new ProjectCreationScheduler();
+		registerMetrics();
 		ICommandService cs = (ICommandService) PlatformUI.getWorkbench().getService(ICommandService.class);
 		toggleCommand = cs.getCommand("org.steb.commands.sampleCommand");
+
+		final IEditorRegistry editorRegistry = PlatformUI.getWorkbench().getEditorRegistry();
+		editorIdCache = new EditorIdCache(EditorsUI.DEFAULT_TEXT_EDITOR_ID);
+		editorIdCache.setNamedFiles(EclipseEditorHelper.getNamedFileAssociations(editorRegistry));
+		editorRegistryListener = new IPropertyListener() {
+
+			@Override
+			public void propertyChanged(Object source, int propId) {
+				if (propId == IEditorRegistry.PROP_CONTENTS) {
+					editorIdCache.setNamedFiles(EclipseEditorHelper.getNamedFileAssociations(editorRegistry));
+					// An editor that failed may have been fixed or replaced.
+					forgetFailedEditors();
+				}
+			}
+		};
+		editorRegistry.addPropertyListener(editorRegistryListener);
+		context.addBundleListener(bundleListener);
 		
 		//Set the command to false by default, then enable if the listener is configured to be on and it's able to open the port.
 		PlatformUI.getWorkbench().getDisplay().asyncExec(new Runnable() {
@@ -81,10 +164,16 @@ public class Activator extends Plugin implements IStartup, IPropertyChangeListen
 			@Override
 			public void run() {
 				toggleCommand.getState("org.eclipse.ui.commands.toggleState").setValue(Boolean.FALSE);
+
+				OpenEditorTracker tracker = new OpenEditorTracker(PlatformUI.getWorkbench());
+				tracker.install();
+				openEditorTracker = tracker;
 			}
 		});		
 		
 		getPreferenceStore();
+		editorIdCache.setOverrides(preferenceStore.getString(PreferenceConstants.P_EDITOR_OVERRIDES));
+		editorIdCache.setFailures(preferenceStore.getString(PreferenceConstants.P_FAILED_EDITORS));
 		currentPort = preferenceStore.getInt(PreferenceConstants.LISTENER_PORT);
 		if (preferenceStore.getBoolean(PreferenceConstants.LISTENER_ENABLED)) {
 			try {
@@ -117,17 +206,136 @@ public class Activator extends Plugin implements IStartup, IPropertyChangeListen
 	 * org.eclipse.core.runtime.Plugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
-		plugin = null;
 		preferenceStore.removePropertyChangeListener(this);
+		context.removeBundleListener(bundleListener);
+		// Requests the listener drains from now on are answered with an error, handling them needs the state below.
+		if (listener != null) {
+			listener.stopDispatching();
+		}
 		shutdownListener();
+		plugin = null;
+		registryHeartbeat.cancel();
+		if (registry != null) {
+			registry.close();
+			registry = null;
+		}
+		locationIndex.uninstall();
+		locationIndex = null;
+		projectScheduler = null;
+		unregisterMetrics();
+		editorIdCache = null;
+		final OpenEditorTracker tracker = openEditorTracker;
+		openEditorTracker = null;
+		if (PlatformUI.isWorkbenchRunning()) {
+			PlatformUI.getWorkbench().getEditorRegistry().removePropertyListener(editorRegistryListener);
+
+			if (tracker != null) {
+				PlatformUI.getWorkbench().getDisplay().asyncExec(new Runnable() {
+
+					@Override
+					public void run() {
+						tracker.uninstall();
+					}
+				});
+			}
+		}
 		preferenceStore = null;
 		super.stop(context);
 	}
 
+	/**
+	 * Publish {@link Metrics} to JMX so request latencies can be watched from jconsole.
+	 */
+	private void registerMetrics() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(Metrics.getDefault(), new ObjectName(Metrics.OBJECT_NAME));
+		} catch (JMException e) {
+			this.getLog().log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Unable to register steb metrics. (" + e.getMessage() + ")"));
+		}
+	}
+
+	private void unregisterMetrics() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(Metrics.OBJECT_NAME));
+		} catch (JMException e) {
+			// Was never registered.
+		}
+	}
+
 	public static Activator getDefault() {
 		return plugin;
 	}
 
+	/**
+	 * @return index of workspace containers by file system location.
+	 */
+	public ResourceLocationIndex getLocationIndex() {
+		return locationIndex;
+	}
+
+	/**
+	 * @return scheduler of project creations.
+	 */
+	public ProjectCreationScheduler getProjectScheduler() {
+		return projectScheduler;
+	}
+
+	/**
+	 * @return cache of editor ids by kind of file.
+	 */
+	public EditorIdCache getEditorIdCache() {
+		return editorIdCache;
+	}
+
+	/**
+	 * Remember, across restarts, that an editor failed to open a kind of file.
+	 * 
+	 * @param key
+	 * @param editorId
+	 */
+	public void editorFailed(String key, String editorId) {
+		if (!editorIdCache.recordFailure(key, editorId)) {
+			return;
+		}
+
+		saveFailedEditors(editorIdCache.getFailures());
+	}
+
+	/**
+	 * Give every editor that failed to open a kind of file another chance. Failures are also caused by a single
+	 * broken file, so they are forgotten whenever the installed editors may have changed, and on request from the
+	 * preference page.
+	 */
+	public void forgetFailedEditors() {
+		EditorIdCache cache = editorIdCache;
+		if (cache == null || cache.getFailures().length() == 0) {
+			return;
+		}
+
+		cache.clearFailures();
+		saveFailedEditors("");
+	}
+
+	/**
+	 * @param failures
+	 *            from {@link EditorIdCache#getFailures()}.
+	 */
+	private void saveFailedEditors(String failures) {
+		preferenceStore.setValue(PreferenceConstants.P_FAILED_EDITORS, failures);
+		try {
+			preferenceStore.save();
+		} catch (IOException e) {
+			this.getLog().log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Unable to save failed editors. (" + e.getMessage() + ")"));
+		}
+	}
+
+	/**
+	 * @return tracker of the editors open on local files, or null until the workbench has started.
+	 */
+	public OpenEditorTracker getOpenEditorTracker() {
+		return openEditorTracker;
+	}
+
 	public void earlyStartup() {
 		// Do nothing here, but this makes our plugin load so we can create the
 		// listener.
@@ -141,9 +349,92 @@ public class Activator extends Plugin implements IStartup, IPropertyChangeListen
 		if (listener != null) {
 			return;
 		}
-        listener = new FileOpenListener(this.getLog(), currentPort);
+        listener = new FileOpenListener(this.getLog(), currentPort, getUnixSocketPath());
         listener.start();
-		
+        publishListener();
+	}
+
+	/**
+	 * Tell clients where the running listener of this workspace is, see {@link WorkspaceRegistry}.
+	 */
+	private void publishListener() {
+		try {
+			if (registry == null) {
+				registry = WorkspaceRegistry.open(getRuntimeDirectory().resolve("steb-registry"));
+				registryHeartbeat.setSystem(true);
+			}
+			registry.publish(currentPort, listener.getUnixSocketPath(), ResourcesPlugin.getWorkspace().getRoot().getLocation().toOSString());
+			registryHeartbeat.schedule(WorkspaceRegistry.HEARTBEAT_SECONDS * 1000L);
+		} catch (IOException e) {
+			// Clients fall back to STEBPORT or the default port.
+			this.getLog().log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Unable to publish steb listener in the registry. (" + e.getMessage() + ")"));
+		}
+	}
+
+	/**
+	 * Replace the running listener by one with the current settings. The time this takes is recorded as
+	 * {@link Metrics.Phase#RESTART}.
+	 * 
+	 * @throws IOException
+	 */
+	private void restartListener() throws IOException {
+		long start = System.nanoTime();
+		shutdownListener();
+		startupListener();
+		Metrics.getDefault().record(Metrics.Phase.RESTART, start);
+	}
+
+	/**
+	 * @return path of the Unix domain socket to listen on, or null if it is disabled. The socket is created in
+	 *         $XDG_RUNTIME_DIR (or a private temp directory, see {@link #getRuntimeDirectory()}) and named after the
+	 *         workspace, eg steb-workspace-1a2b3c4d.sock. The hash of the full workspace location tells apart
+	 *         workspaces whose folders share a name.
+	 */
+	private Path getUnixSocketPath() {
+		if (!getPreferenceStore().getBoolean(PreferenceConstants.UNIX_SOCKET_ENABLED)) {
+			return null;
+		}
+
+		IPath location = ResourcesPlugin.getWorkspace().getRoot().getLocation();
+		String name = "steb-" + location.lastSegment() + "-" + String.format("%08x", location.toOSString().hashCode()) + ".sock";
+		try {
+			return getRuntimeDirectory().resolve(name);
+		} catch (IOException e) {
+			this.getLog().log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Not listening on a Unix domain socket. (" + e.getMessage() + ")"));
+			return null;
+		}
+	}
+
+	/**
+	 * @return $XDG_RUNTIME_DIR, or where it is not set the directory steb-$USER in the temp directory, which only the
+	 *         current user may access. The shared temp directory itself is never used, anyone could plant files there.
+	 * @throws IOException
+	 *             if the directory cannot be created or others have access to it.
+	 */
+	private static Path getRuntimeDirectory() throws IOException {
+		String dir = System.getenv("XDG_RUNTIME_DIR");
+		if (dir != null && dir.length() > 0) {
+			return Paths.get(dir);
+		}
+
+		Path path = Paths.get(System.getProperty("java.io.tmpdir"), "steb-" + System.getProperty("user.name"));
+		try {
+			try {
+				Files.createDirectory(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+			} catch (FileAlreadyExistsException e) {
+				// Left by an earlier run, or made by someone else, which is checked below.
+			}
+
+			PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			if (!attributes.isDirectory() || !attributes.owner().equals(WorkspaceRegistry.getCurrentUser())
+				|| !attributes.permissions().equals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE))) {
+				throw new IOException(path + " is not a private directory of the current user.");
+			}
+		} catch (UnsupportedOperationException e) {
+			throw new IOException("Permissions of " + path + " cannot be checked.");
+		}
+
+		return path;
 	}
 
 	/**
@@ -154,13 +445,18 @@ public class Activator extends Plugin implements IStartup, IPropertyChangeListen
 			return;
 		}
 
-		listener.setRunning(false);
-		//Send poison pill so listener wakes up to exit.
+		registryHeartbeat.cancel();
+		if (registry != null) {
+			registry.clear();
+		}
+		listener.shutdown();
+		// Wait for the listener to release its sockets so they can be bound again right away.
 		try {
-			Socket s = new Socket("127.0.0.1", currentPort);
-			s.getOutputStream().write('\n');
-			s.close();
-		} catch (Exception e) {
+			if (!listener.awaitUnbound(LISTENER_STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				this.getLog().log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "steb listener did not release its port in time."));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 		listener = null;
 	}
@@ -175,6 +471,11 @@ public class Activator extends Plugin implements IStartup, IPropertyChangeListen
 	}
 
 	public void propertyChange(PropertyChangeEvent event) {
+		if (event.getProperty().equals(PreferenceConstants.P_EDITOR_OVERRIDES)) {
+			editorIdCache.setOverrides((String) event.getNewValue());
+			return;
+		}
+
 		// Handle activating/deactivating listener.
 		if (event.getProperty().equals(PreferenceConstants.LISTENER_ENABLED)) {
 			boolean oldVal = ((Boolean) event.getOldValue()).booleanValue();
@@ -195,6 +496,20 @@ public class Activator extends Plugin implements IStartup, IPropertyChangeListen
 				} catch (ExecutionException e1) {					
 				}
 			}
+		} else if (event.getProperty().equals(PreferenceConstants.UNIX_SOCKET_ENABLED)) {
+			// Restart a running listener so the Unix domain socket is opened or closed.
+			if (listener != null) {
+				try {
+					restartListener();
+				} catch (IOException e) {
+					this.getLog().log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Unable to start steb listener. (" + e.getMessage() + ")"));
+					preferenceStore.setValue(PreferenceConstants.LISTENER_ENABLED, Boolean.FALSE);
+					try {
+						HandlerUtil.toggleCommandState(toggleCommand);
+					} catch (ExecutionException e1) {					
+					}
+				}
+			}
 		} else if (event.getProperty().equals(PreferenceConstants.LISTENER_PORT)) {
 			// Handle change of port # to listen on.
 			String nstr = event.getNewValue().toString();
@@ -205,21 +520,22 @@ public class Activator extends Plugin implements IStartup, IPropertyChangeListen
 				return;
 			}
 
-			if (listener != null) {
-				shutdownListener();
-				currentPort = Integer.parseInt(nstr);
+			int port = Integer.parseInt(nstr);
+			if (listener != null && port != currentPort) {
+				long start = System.nanoTime();
 				try {
-					startupListener();
+					listener.rebind(port);
+					currentPort = port;
+					publishListener();
+					Metrics.getDefault().record(Metrics.Phase.RESTART, start);
 				} catch (IOException e) {
-					this.getLog().log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Unable to start steb listener. (" + e.getMessage() + ")"));
-					preferenceStore.setValue(PreferenceConstants.LISTENER_ENABLED, Boolean.FALSE);
-					try {
-						HandlerUtil.toggleCommandState(toggleCommand);
-					} catch (ExecutionException e1) {					
-					}
+					// Keep serving where we are, and say so on the preference page.
+					this.getLog().log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Unable to listen on port " + port + ", still listening on "
+						+ currentPort + ". (" + e.getMessage() + ")"));
+					preferenceStore.setValue(PreferenceConstants.LISTENER_PORT, currentPort);
 				}
 			} else {
-				currentPort = Integer.parseInt(nstr);
+				currentPort = port;
 			}
 		}
 	}
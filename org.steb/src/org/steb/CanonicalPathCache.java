@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resolves the paths clients send, relative to the client's working directory, to canonical paths with every
+ * symbolic link followed, as realpath does. Resolving a path costs a system call per path segment, so the most
+ * recently resolved paths are remembered.
+ * 
+ * A remembered path is not resolved again, so moving a symbolic link only takes effect once its paths have dropped
+ * out of the cache.
+ * 
+ * @author kgilmer
+ * 
+ */
+class CanonicalPathCache {
+
+	/**
+	 * Number of paths remembered.
+	 */
+	static final int MAX_ENTRIES = 1024;
+
+	private static final CanonicalPathCache DEFAULT = new CanonicalPathCache(MAX_ENTRIES);
+
+	private final Map<String, String> paths;
+
+	/**
+	 * @param maxEntries
+	 *            number of paths remembered.
+	 */
+	CanonicalPathCache(final int maxEntries) {
+		paths = new LinkedHashMap<String, String>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @return the cache shared by all requests.
+	 */
+	static CanonicalPathCache getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param directory
+	 *            the client's working directory, relative paths are resolved against it. May be null.
+	 * @param path
+	 * @return the canonical form of path. The file need not exist. Without a directory a relative path is returned
+	 *         as it is, it names a workspace file as "project/path/to/file.txt", see
+	 *         {@link EclipseEditorHelper#getWorkspaceRelativeFile(File)}.
+	 * @throws IllegalArgumentException
+	 *             if the path cannot be resolved.
+	 */
+	String canonicalize(File directory, String path) {
+		boolean absolute = new File(path).isAbsolute();
+		if (directory == null && !absolute) {
+			return path;
+		}
+		String key = absolute ? path : new File(directory, path).getPath();
+
+		synchronized (paths) {
+			String canonical = paths.get(key);
+			if (canonical != null) {
+				return canonical;
+			}
+		}
+
+		String canonical;
+		try {
+			canonical = new File(key).getCanonicalPath();
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot resolve " + path + ": " + e.getMessage());
+		}
+
+		synchronized (paths) {
+			paths.put(key, canonical);
+		}
+		return canonical;
+	}
+}
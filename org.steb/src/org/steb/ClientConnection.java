@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.steb.search.HitStream;
+
+/**
+ * State of a single client connected to the {@link FileOpenListener}: the partially read request line, the batch,
+ * session or hits stream the client has started and responses waiting to be written back.
+ * 
+ * Everything except {@link #reply(String)} is only used from the listener thread.
+ * 
+ * @author kgilmer
+ * 
+ */
+class ClientConnection {
+
+	/**
+	 * Size of the per-client read buffer.
+	 */
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	/**
+	 * Longest request line accepted from a client, anything longer is dropped.
+	 */
+	private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+	/**
+	 * Longest a client may stay silent in the middle of a request.
+	 */
+	static final int READ_TIMEOUT_SECONDS = 30;
+
+	final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private final FileOpenListener listener;
+	private final SelectionKey key;
+
+	/**
+	 * Runs the requests of this client in order.
+	 */
+	final Executor executor;
+
+	/**
+	 * Paths received so far, or null if the client has not started a batch.
+	 */
+	List<String> batch;
+
+	/**
+	 * True once the client has started a session.
+	 */
+	boolean session;
+
+	/**
+	 * System.nanoTime() when the connection was accepted.
+	 */
+	final long accepted = System.nanoTime();
+
+	/**
+	 * System.nanoTime() when the client last sent something.
+	 */
+	long lastRead = accepted;
+
+	/**
+	 * True once the first line has been received.
+	 */
+	boolean started;
+
+	/**
+	 * Decodes the requests of a framed client, or null if the client sends request lines.
+	 */
+	FrameDecoder frames;
+
+	/**
+	 * Working directory a framed client's relative paths are resolved against, or null if it has not sent one.
+	 */
+	File directory;
+
+	/**
+	 * Receives the records of a hits stream, or null if the client has not started one.
+	 */
+	HitStream hits;
+
+	/**
+	 * Records of a hits stream received since they were last handed over.
+	 */
+	List<String> hitRecords;
+
+	/**
+	 * True once the client has closed its end.
+	 */
+	boolean eof;
+
+	private final ConcurrentLinkedQueue<ByteBuffer> outgoing = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger outstanding = new AtomicInteger();
+
+	/**
+	 * @param listener
+	 * @param key
+	 * @param handler
+	 *            executor the requests of the client are handled on.
+	 */
+	ClientConnection(FileOpenListener listener, SelectionKey key, Executor handler) {
+		this.listener = listener;
+		this.key = key;
+		this.executor = new SerialExecutor(handler);
+	}
+
+	SelectionKey getKey() {
+		return key;
+	}
+
+	/**
+	 * Move bytes from the read buffer into the pending line.
+	 * 
+	 * @return the next complete line, or null if the buffer holds no further complete line.
+	 */
+	String nextLine() {
+		while (buffer.hasRemaining()) {
+			byte b = buffer.get();
+			if (b == '\n') {
+				return toLine();
+			}
+			pending.write(b);
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return a partial last line sent before the client closed its end, or null.
+	 */
+	String remainder() {
+		if (pending.size() > 0) {
+			return toLine();
+		}
+
+		return null;
+	}
+
+	boolean overflow() {
+		return pending.size() > MAX_LINE_LENGTH;
+	}
+
+	private String toLine() {
+		String line = pending.toString();
+		if (line.endsWith("\r")) {
+			line = line.substring(0, line.length() - 1);
+		}
+		pending.reset();
+		return line;
+	}
+
+	/**
+	 * Note that a request has been accepted for which a reply will follow.
+	 */
+	void expectReply() {
+		outstanding.incrementAndGet();
+	}
+
+	/**
+	 * Queue a response line for the client. May be called from any thread.
+	 * 
+	 * @param line
+	 */
+	void reply(String line) {
+		outgoing.add(ByteBuffer.wrap((line + "\n").getBytes()));
+		outstanding.decrementAndGet();
+		listener.requestWrite(this);
+	}
+
+	/**
+	 * Write as much of the queued responses as the socket takes.
+	 * 
+	 * @return true if everything queued has been written.
+	 * @throws IOException
+	 */
+	boolean flush() throws IOException {
+		SocketChannel channel = (SocketChannel) key.channel();
+		ByteBuffer head;
+		while ((head = outgoing.peek()) != null) {
+			channel.write(head);
+
+			if (head.hasRemaining()) {
+				return false;
+			}
+			outgoing.poll();
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param now
+	 *            System.nanoTime()
+	 * @return true if the client has sent nothing for {@link #READ_TIMEOUT_SECONDS} in the middle of a request.
+	 */
+	boolean isTimedOut(long now) {
+		// Hits streams follow builds that may be quiet for minutes, an idle session waits for the tool that opened
+		// it and framed paths may come from a find that takes its time between matches.
+		if (eof || hits != null || (session && pending.size() == 0) || (frames != null && frames.isBetweenFields())) {
+			return false;
+		}
+
+		return now - lastRead > TimeUnit.SECONDS.toNanos(READ_TIMEOUT_SECONDS);
+	}
+
+	/**
+	 * @return true if the client has closed its end and every reply has been written.
+	 */
+	boolean isDone() {
+		return eof && outstanding.get() == 0 && outgoing.isEmpty();
+	}
+}
@@ -24,25 +24,28 @@ package org.steb;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
-import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
 import org.eclipse.compare.CompareConfiguration;
 import org.eclipse.compare.CompareEditorInput;
 import org.eclipse.compare.CompareUI;
 import org.eclipse.compare.ICompareInputLabelProvider;
-import org.eclipse.compare.IStreamContentAccessor;
-import org.eclipse.compare.ITypedElement;
 import org.eclipse.compare.structuremergeviewer.DiffNode;
 import org.eclipse.compare.structuremergeviewer.Differencer;
 import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.filesystem.IFileStore;
+import org.eclipse.core.resources.FileInfoMatcherDescription;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IProjectDescription;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceFilterDescription;
 import org.eclipse.core.resources.IWorkspace;
-import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
@@ -50,20 +53,28 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.content.IContentType;
 import org.eclipse.jface.viewers.ILabelProviderListener;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.ui.IEditorDescriptor;
 import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IEditorRegistry;
+import org.eclipse.ui.IFileEditorMapping;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.editors.text.EditorsUI;
 import org.eclipse.ui.ide.FileStoreEditorInput;
 import org.eclipse.ui.part.FileEditorInput;
+import org.steb.compare.DirectoryCompare;
+import org.steb.compare.MappedInput;
+import org.steb.editors.LargeFileEditor;
+import org.steb.editors.MappedFile;
+import org.steb.metrics.Metrics;
 import org.steb.preferences.PreferenceConstants;
 
 /**
@@ -77,6 +88,17 @@ import org.steb.preferences.PreferenceConstants;
  */
 public class EclipseEditorHelper {
 
+    /**
+     * Id of the resource filter matcher that matches names against a regular expression.
+     */
+    private static final String REGEX_FILTER_MATCHER = "org.eclipse.core.resources.regexFilterMatcher";
+
+    /**
+     * Excluded folders that are hidden wherever they are found, not just at the root of a project. Nested
+     * node_modules are dependency caches too, whereas a nested folder named build or target may well be source.
+     */
+    private static final Set<String> NESTED_EXCLUDED_FOLDERS = Collections.singleton("node_modules");
+
     /**
      * Open an eclipse editor for a given file.
      * 
@@ -89,54 +111,143 @@ public class EclipseEditorHelper {
      */
     public static IEditorPart openEclipseEditorForFile(File file, boolean create, final IWorkbench workbench) throws IOException,
         CoreException {
+        return openEclipseEditorForFile(file, create, workbench, true);
+    }
+
+    /**
+     * Open an eclipse editor for a given file.
+     * 
+     * @param file
+     * @param create
+     * @param workbench
+     * @param activate
+     *            if true bring the workbench window to the front once the editor is open. Callers opening several
+     *            files pass false and call {@link #activateWorkbenchWindow(IWorkbench)} once at the end.
+     * @return
+     * @throws IOException
+     * @throws CoreException
+     */
+    public static IEditorPart openEclipseEditorForFile(File file, boolean create, final IWorkbench workbench, boolean activate)
+        throws IOException, CoreException {
         IEditorPart editorPart = null;
 
         final IWorkbenchWindow window = workbench.getActiveWorkbenchWindow();
+
+        // If the file is already open just bring its editor to the front.
+        OpenEditorTracker tracker = Activator.getDefault().getOpenEditorTracker();
+        if (tracker != null) {
+            editorPart = tracker.activate(file, window.getActivePage());
+
+            if (editorPart != null) {
+                if (activate) {
+                    window.getShell().forceActive();
+                }
+                return editorPart;
+            }
+        }
+
         IEditorInput input = createEditorInput(file, create);
 
         if (input != null) {
-            String editorId = getEditorId(workbench, file);
+            String editorKey = getEditorKey(file);
+            String editorId = isLargeFile(file) ? LargeFileEditor.ID : getEditorId(workbench, editorKey, file);
             IWorkbenchPage page = window.getActivePage();
 
+            long start = System.nanoTime();
             editorPart = page.openEditor(input, editorId);
+            Metrics.getDefault().record(Metrics.Phase.OPEN_EDITOR, start);
 
             // Check to see if the editor open failed, if so use the default text editor instead of the configured
             // editor.
             if (editorPart.getClass().getName().equals("org.eclipse.ui.internal.ErrorEditorPart")) {
+                // Remember the failure so files of this kind go straight to the text editor from now on.
+                if (!editorId.equals(EditorsUI.DEFAULT_TEXT_EDITOR_ID) && !editorId.equals(LargeFileEditor.ID)) {
+                    Activator.getDefault().editorFailed(editorKey, editorId);
+                }
+
                 window.getActivePage().closeEditor(editorPart, true);
+                start = System.nanoTime();
                 editorPart = page.openEditor(input, EditorsUI.DEFAULT_TEXT_EDITOR_ID);
+                Metrics.getDefault().record(Metrics.Phase.OPEN_EDITOR, start);
             }
 
-            window.getShell().forceActive();
+            if (activate) {
+                window.getShell().forceActive();
+            }
         }
 
         return editorPart;
     }
 
+    /**
+     * @param file
+     * @return true if file is over the size at which it is shown in the {@link LargeFileEditor} rather than loaded into
+     *         a document.
+     */
+    private static boolean isLargeFile(File file) {
+        long threshold = Activator.getDefault().getPreferenceStore().getInt(PreferenceConstants.LARGE_FILE_THRESHOLD);
+
+        return threshold > 0 && file.length() > threshold * 1024 * 1024;
+    }
+
+    /**
+     * Bring the active workbench window to the front.
+     * 
+     * @param workbench
+     */
+    public static void activateWorkbenchWindow(IWorkbench workbench) {
+        IWorkbenchWindow window = workbench.getActiveWorkbenchWindow();
+
+        if (window != null) {
+            window.getShell().forceActive();
+        }
+    }
+
+    /**
+     * @param file
+     * @return key of the kind of file (extension and content type) file belongs to in the {@link EditorIdCache}.
+     */
+    private static String getEditorKey(File file) {
+        IContentType contentType = Platform.getContentTypeManager().findContentTypeFor(file.getName());
+
+        return Activator.getDefault().getEditorIdCache().keyFor(file.getName(), contentType == null ? null : contentType.getId());
+    }
+
     /**
      * @param workbench
+     * @param key
+     *            from {@link #getEditorKey(File)}.
      * @param file
      * @return Id of editor for given file type, defaults to EditorsUI.DEFAULT_TEXT_EDITOR_ID
      */
-    private static String getEditorId(IWorkbench workbench, File file) {
-        String editorId = EditorsUI.DEFAULT_TEXT_EDITOR_ID;
-        IEditorRegistry editorRegistry = workbench.getEditorRegistry();
-        IEditorDescriptor descriptor = editorRegistry.getDefaultEditor(file.getName());
-        if (descriptor != null && !editorOverride(descriptor.getId())) {
-            editorId = descriptor.getId();
-        }
+    private static String getEditorId(IWorkbench workbench, String key, File file) {
+        final IEditorRegistry editorRegistry = workbench.getEditorRegistry();
+
+        return Activator.getDefault().getEditorIdCache().getEditorId(key, file.getName(), new EditorIdCache.Resolver() {
+
+            public String resolve(String fileName) {
+                IContentType contentType = Platform.getContentTypeManager().findContentTypeFor(fileName);
+                IEditorDescriptor descriptor = editorRegistry.getDefaultEditor(fileName, contentType);
 
-        return editorId;
+                return descriptor == null ? null : descriptor.getId();
+            }
+        });
     }
 
     /**
-     * @param id
-     * @return true if user via preference item has opted to override this editor with default.
+     * @param editorRegistry
+     * @return names of files that have an editor association by name rather than by extension.
      */
-    private static boolean editorOverride(String id) {
-        String s = Activator.getDefault().getPreferenceStore().getString(PreferenceConstants.P_EDITOR_OVERRIDES);
+    public static Set<String> getNamedFileAssociations(IEditorRegistry editorRegistry) {
+        Set<String> names = new HashSet<String>();
+
+        for (IFileEditorMapping mapping : editorRegistry.getFileEditorMappings()) {
+            if (!"*".equals(mapping.getName())) {
+                names.add(mapping.getLabel());
+            }
+        }
 
-        return s.indexOf(id) > -1;
+        return names;
     }
 
     /**
@@ -186,7 +297,7 @@ public class EclipseEditorHelper {
      * @param file
      * @return
      */
-    private static IFile getWorkspaceRelativeFile(File file) {
+    public static IFile getWorkspaceRelativeFile(File file) {
         IWorkspace workspace = ResourcesPlugin.getWorkspace();
         IPath location = null;
 
@@ -197,41 +308,135 @@ public class EclipseEditorHelper {
             location = new Path(workspace.getRoot().getLocation() + File.separator + file.getPath());
         }
 
-        IFile[] files = workspace.getRoot().findFilesForLocation(location);
+        long start = System.nanoTime();
+        IFile result = Activator.getDefault().getLocationIndex().findFile(location);
+        Metrics.getDefault().record(Metrics.Phase.RESOLVE, start);
 
-        if (files.length == 1) {
-            return files[0];
+        return result;
+    }
+
+    /**
+     * An existing project description in the directory is used as is, otherwise the project is named after the
+     * directory.
+     * 
+     * @param workspace
+     * @param directory
+     * @return the description of the project for directory.
+     * @throws CoreException
+     *             if the project description in the directory cannot be read.
+     */
+    static IProjectDescription describeProject(IWorkspace workspace, File directory) throws CoreException {
+        File descriptionFile = new File(directory, IProjectDescription.DESCRIPTION_FILE_NAME);
+        IProjectDescription desc;
+
+        if (descriptionFile.isFile()) {
+            desc = workspace.loadProjectDescription(new Path(descriptionFile.getAbsolutePath()));
+        } else {
+            desc = workspace.newProjectDescription(directory.getName());
         }
+        desc.setLocationURI(directory.getAbsoluteFile().toURI());
 
-        return null;
+        return desc;
     }
 
-    public static void createEclipseProjectForDirectory(final File file, boolean b, IWorkbench workbench) {
-        Job j = new Job("Create project") {
+    /**
+     * Create and open a project. Must run inside a workspace operation whose rule covers the project.
+     * 
+     * @param workspace
+     * @param directory
+     * @param desc
+     *            from {@link #describeProject(IWorkspace, File)}.
+     * @param excluded
+     *            names of folders a new project leaves out. Projects that already have a .project file are imported
+     *            as they are, their description is not changed.
+     * @param monitor
+     * @throws CoreException
+     */
+    static void createProject(IWorkspace workspace, File directory, IProjectDescription desc, Set<String> excluded, IProgressMonitor monitor)
+        throws CoreException {
+        SubMonitor progress = SubMonitor.convert(monitor, 3);
+
+        IProject project = workspace.getRoot().getProject(desc.getName());
+        if (!project.exists()) {
+            boolean imported = new File(directory, IProjectDescription.DESCRIPTION_FILE_NAME).isFile();
+            project.create(desc, progress.newChild(1));
+
+            // Filters can only be added to an open project. The refresh of a background refresh open waits for the
+            // workspace operation we are in, so the filters are in place before the first refresh ever runs.
+            project.open(IResource.BACKGROUND_REFRESH, progress.newChild(1));
+            if (!imported) {
+                excludeFolders(project, excluded, progress.newChild(1));
+            }
+            return;
+        }
+
+        IPath location = project.getLocation();
+        if (location != null && !location.toFile().getAbsoluteFile().equals(directory.getAbsoluteFile())) {
+            throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Project " + project.getName() + " already exists at "
+                + location.toOSString()));
+        }
 
-            @Override
-            protected IStatus run(IProgressMonitor monitor) {
-                IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+        if (!project.isOpen()) {
+            project.open(progress.newChild(1));
+        }
+    }
 
-                IProject project = root.getProject(file.getName());
-                IProjectDescription desc = project.getWorkspace().newProjectDescription(project.getName());
-                try {
-                    URI uri = new URI("file://" + file.getAbsolutePath());
-                    desc.setLocationURI(uri);
+    /**
+     * @return names of the folders that new projects leave out.
+     */
+    static Set<String> getExcludedFolders() {
+        Set<String> names = new LinkedHashSet<String>();
 
-                    project.create(desc, monitor);
+        for (String name : Activator.getDefault().getPreferenceStore().getString(PreferenceConstants.P_RESOURCE_FILTERS).split(",")) {
+            if (name.trim().length() > 0) {
+                names.add(name.trim());
+            }
+        }
 
-                    project.open(monitor);
-                }
-                catch (Exception e) {
-                    return new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to create project.", e);
-                }
+        return names;
+    }
 
-                return Status.OK_STATUS;
+    /**
+     * Add resource filters to project that hide the folders with one of the given names. Folders are only hidden at
+     * the root of the project, where build output and metadata live, so that packages such as com/foo/build stay
+     * visible; only {@link #NESTED_EXCLUDED_FOLDERS} are hidden at any depth.
+     * 
+     * @param project
+     * @param names
+     * @param monitor
+     * @throws CoreException
+     */
+    private static void excludeFolders(IProject project, Set<String> names, IProgressMonitor monitor) throws CoreException {
+        Set<String> root = new LinkedHashSet<String>(names);
+        Set<String> nested = new LinkedHashSet<String>(names);
+        root.removeAll(NESTED_EXCLUDED_FOLDERS);
+        nested.retainAll(NESTED_EXCLUDED_FOLDERS);
+
+        SubMonitor progress = SubMonitor.convert(monitor, 2);
+        if (!root.isEmpty()) {
+            project.createFilter(IResourceFilterDescription.EXCLUDE_ALL | IResourceFilterDescription.FOLDERS, matchNames(root),
+                IResource.BACKGROUND_REFRESH, progress.newChild(1));
+        }
+        if (!nested.isEmpty()) {
+            project.createFilter(IResourceFilterDescription.EXCLUDE_ALL | IResourceFilterDescription.FOLDERS | IResourceFilterDescription.INHERITABLE,
+                matchNames(nested), IResource.BACKGROUND_REFRESH, progress.newChild(1));
+        }
+    }
+
+    /**
+     * @param names
+     * @return a matcher for resources with one of the names.
+     */
+    private static FileInfoMatcherDescription matchNames(Set<String> names) {
+        StringBuilder regex = new StringBuilder();
+        for (String name : names) {
+            if (regex.length() > 0) {
+                regex.append('|');
             }
-        };
+            regex.append(Pattern.quote(name));
+        }
 
-        j.schedule();
+        return new FileInfoMatcherDescription(REGEX_FILTER_MATCHER, "^(" + regex + ")$");
     }
 
     /**
@@ -268,9 +473,6 @@ public class EclipseEditorHelper {
         }
         CompareEditorInput result = null;
 
-        IFileStore fileStore1 = EFS.getLocalFileSystem().fromLocalFile(file1);
-        IFileStore fileStore2 = EFS.getLocalFileSystem().fromLocalFile(file2);
-
         CompareConfiguration config = new CompareConfiguration();
         
         config.setDefaultLabelProvider(new ICompareInputLabelProvider() {
@@ -307,7 +509,7 @@ public class EclipseEditorHelper {
             
             @Override
             public String getRightLabel(Object input) {
-                if (input instanceof DiffNode)
+                if (input instanceof DiffNode && ((DiffNode) input).getRight() != null)
                     return ((DiffNode) input).getRight().getName();
                 
                 return input.toString();
@@ -315,7 +517,7 @@ public class EclipseEditorHelper {
             
             @Override
             public Image getRightImage(Object input) {
-                if (input instanceof DiffNode)
+                if (input instanceof DiffNode && ((DiffNode) input).getRight() != null)
                     return ((DiffNode) input).getRight().getImage();
                 
                 return null;
@@ -323,7 +525,7 @@ public class EclipseEditorHelper {
             
             @Override
             public String getLeftLabel(Object input) {
-                if (input instanceof DiffNode)
+                if (input instanceof DiffNode && ((DiffNode) input).getLeft() != null)
                     return ((DiffNode) input).getLeft().getName();
                 
                 return input.toString();
@@ -331,7 +533,7 @@ public class EclipseEditorHelper {
             
             @Override
             public Image getLeftImage(Object input) {
-                if (input instanceof DiffNode)
+                if (input instanceof DiffNode && ((DiffNode) input).getLeft() != null)
                     return ((DiffNode) input).getLeft().getImage();
                 
                 return null;
@@ -348,23 +550,23 @@ public class EclipseEditorHelper {
             }
         });
         
-        result = new StebCompareEditorInput(config, fileStore1, fileStore2);
+        result = new StebCompareEditorInput(config, file1, file2);
 
         return result;
     }
     
     private static class StebCompareEditorInput extends CompareEditorInput {
 
-        private final IFileStore r1;
-        private final IFileStore r2;
+        private final File file1;
+        private final File file2;
 
         /**
          * @param configuration
          */
-        public StebCompareEditorInput(CompareConfiguration configuration, IFileStore r1, IFileStore r2) {
+        public StebCompareEditorInput(CompareConfiguration configuration, File file1, File file2) {
             super(configuration);
-            this.r1 = r1;
-            this.r2 = r2;
+            this.file1 = file1;
+            this.file2 = file2;
         }
 
         /*
@@ -374,44 +576,42 @@ public class EclipseEditorHelper {
          */
         @Override
         protected Object prepareInput(IProgressMonitor monitor) throws InvocationTargetException, InterruptedException {
-            Differencer d = new Differencer();
-
-            return d.findDifferences(false, monitor, null, null, new Input(r1, monitor),
-                new Input(r2, monitor));
-        }
-
-    }
+            if (file1.isDirectory()) {
+                try {
+                    return DirectoryCompare.compare(file1, file2, monitor);
+                } catch (IOException e) {
+                    throw new InvocationTargetException(e);
+                }
+            }
 
-    private static class Input implements ITypedElement, IStreamContentAccessor {
-        private final IFileStore fileStore;
-        private final IProgressMonitor monitor;
+            MappedFile left = null;
+            MappedFile right = null;
 
-        public Input(IFileStore fileStore, IProgressMonitor monitor) {
-            this.fileStore = fileStore;
-            this.monitor = monitor;
-           
-        }
+            try {
+                left = MappedFile.open(file1);
+                right = MappedFile.open(file2);
 
-        public String getName() {     
-            return fileStore.getName();
-        }
+                // Identical files need no text compare, returning null reports that there are no differences.
+                if (left.contentEquals(right)) {
+                    return null;
+                }
 
-        public Image getImage() {
-            return null;
-        }
+                Differencer d = new Differencer();
 
-        public String getType() {
-            String name = fileStore.getName();
-            if (name.contains(".")) {
-                return name.substring(name.lastIndexOf('.') + 1);
+                return d.findDifferences(false, monitor, null, null, new MappedInput(file1.getName(), left),
+                    new MappedInput(file2.getName(), right));
+            } catch (IOException e) {
+                throw new InvocationTargetException(e);
+            } finally {
+                // The mappings outlive the files, the inputs keep reading them.
+                if (left != null) {
+                    left.close();
+                }
+                if (right != null) {
+                    right.close();
+                }
             }
-            
-            //Try text compare.
-            return "txt";
         }
 
-        public InputStream getContents() throws CoreException {
-            return fileStore.openInputStream(0, monitor);
-        }
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the editor id to use for a kind of file, so the editor registry is only asked once per extension and
+ * content type.
+ * 
+ * The user's editor overrides are parsed once into a set when the preference changes. The cache must be cleared
+ * whenever the editor registry changes.
+ * 
+ * The cache also remembers editors that failed to open a kind of file, so that such files are given to the default
+ * editor straight away instead of failing again, until {@link #clearFailures()}.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class EditorIdCache {
+
+	/**
+	 * Looks up the default editor of a file on a cache miss.
+	 */
+	public interface Resolver {
+		/**
+		 * @param fileName
+		 * @return id of the default editor for fileName, or null if there is none.
+		 */
+		String resolve(String fileName);
+	}
+
+	private final String defaultEditorId;
+	private final ConcurrentHashMap<String, String> ids = new ConcurrentHashMap<String, String>();
+	private volatile Set<String> overrides = Collections.emptySet();
+	private volatile Set<String> namedFiles = Collections.emptySet();
+	private final Set<String> failures = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param defaultEditorId
+	 *            editor used when a file has no default editor or its editor is overridden.
+	 */
+	public EditorIdCache(String defaultEditorId) {
+		this.defaultEditorId = defaultEditorId;
+	}
+
+	/**
+	 * @param preference
+	 *            comma separated ids of editors the user has chosen to replace with the default editor.
+	 */
+	public void setOverrides(String preference) {
+		Set<String> parsed = new HashSet<String>();
+
+		if (preference != null) {
+			for (String id : preference.split(",")) {
+				if (id.trim().length() > 0) {
+					parsed.add(id.trim());
+				}
+			}
+		}
+
+		overrides = parsed;
+		ids.clear();
+	}
+
+	/**
+	 * @param names
+	 *            file names that have an editor association of their own (rather than by extension), these are
+	 *            cached by full name.
+	 */
+	public void setNamedFiles(Set<String> names) {
+		namedFiles = names;
+		ids.clear();
+	}
+
+	/**
+	 * @param preference
+	 *            comma separated "editorId|key" pairs as returned by {@link #getFailures()}.
+	 */
+	public void setFailures(String preference) {
+		failures.clear();
+
+		if (preference != null) {
+			for (String failure : preference.split(",")) {
+				if (failure.indexOf('|') > 0) {
+					failures.add(failure);
+				}
+			}
+		}
+		ids.clear();
+	}
+
+	/**
+	 * Forget the editors known to fail, so each is given another chance.
+	 */
+	public void clearFailures() {
+		failures.clear();
+		ids.clear();
+	}
+
+	/**
+	 * @return the editors known to fail, as comma separated "editorId|key" pairs.
+	 */
+	public String getFailures() {
+		StringBuffer sb = new StringBuffer();
+
+		for (Iterator<String> i = failures.iterator(); i.hasNext();) {
+			sb.append(i.next());
+			if (i.hasNext()) {
+				sb.append(",");
+			}
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Remember that an editor failed to open a kind of file.
+	 * 
+	 * @param key
+	 *            from {@link #keyFor(String, String)}.
+	 * @param editorId
+	 * @return true if the failure was not known before.
+	 */
+	public boolean recordFailure(String key, String editorId) {
+		ids.put(key, defaultEditorId);
+
+		return failures.add(editorId + "|" + key);
+	}
+
+	/**
+	 * @param editorId
+	 * @return true if user via preference item has opted to override this editor with default.
+	 */
+	public boolean isOverridden(String editorId) {
+		return overrides.contains(editorId);
+	}
+
+	/**
+	 * Forget every cached id.
+	 */
+	public void clear() {
+		ids.clear();
+	}
+
+	/**
+	 * @param fileName
+	 * @param contentTypeId
+	 *            id of the content type the name maps to, may be null.
+	 * @return the key files that share an editor with fileName are cached under.
+	 */
+	public String keyFor(String fileName, String contentTypeId) {
+		if (namedFiles.contains(fileName)) {
+			return fileName;
+		}
+
+		int dot = fileName.lastIndexOf('.');
+		String extension = dot < 0 ? "" : fileName.substring(dot);
+
+		return contentTypeId == null ? "*" + extension : "*" + extension + "/" + contentTypeId;
+	}
+
+	/**
+	 * @param key
+	 *            from {@link #keyFor(String, String)}.
+	 * @param fileName
+	 * @param resolver
+	 *            asked on a cache miss.
+	 * @return id of the editor to open fileName with.
+	 */
+	public String getEditorId(String key, String fileName, Resolver resolver) {
+		String id = ids.get(key);
+
+		if (id == null) {
+			id = resolver.resolve(fileName);
+			if (id == null || isOverridden(id) || failures.contains(id + "|" + key)) {
+				id = defaultEditorId;
+			}
+			ids.put(key, id);
+		}
+
+		return id;
+	}
+}
@@ -28,21 +28,64 @@
  */
 package org.steb;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.lang.reflect.Method;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.core.runtime.ILog;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.ui.PlatformUI;
+import org.steb.compare.ContentHash;
+import org.steb.metrics.Metrics;
+import org.steb.search.HitStream;
 
 /**
  * A socket listener that accepts full file paths to open in an Eclipse editor.
  * 
+ * The listener is a single selector thread: it accepts clients and reads their request lines without blocking, so
+ * any number of shells can be connected at once. Complete requests are parsed off the selector thread, on a virtual
+ * thread where the runtime has them (Java 21) or else on a small pool, and queued on a {@link UIDispatcher}, so no
+ * thread ever waits on the display. The requests of one client are handled in the order it sent them, those of
+ * different clients in parallel. A client that stops sending in the middle of a request is disconnected after
+ * {@link ClientConnection#READ_TIMEOUT_SECONDS}.
+ * 
+ * Clients connect over TCP on the loopback interface or, optionally, over a Unix domain socket. A client may send a
+ * single request line, or "-m" followed by one path per line (ended by a blank line or by closing the connection) to
+ * have all of the files opened together.
+ * 
+ * A client that starts with "-s" opens a session instead: every following line is "id request" where request is any
+ * of the single line requests above. Requests may be pipelined, each is answered with "id OK elapsed-microseconds" or
+ * "id ERR message" once it has been carried out, and the connection stays open until the client closes it.
+ * 
+ * A client that starts with a NUL byte sends framed requests instead of lines, see {@link FrameDecoder}. Every path
+ * is a field of its own, so paths may contain spaces or newlines, and may be relative to the working directory the
+ * client sent first.
+ * 
+ * Once {@link UIDispatcher#MAX_QUEUED_REQUESTS} requests are waiting to be handled, further requests are not accepted.
+ * Clients are answered "BUSY retry" instead, or "id BUSY retry" in a session, and may send the request again later.
+ * 
  * Inspired by the sunshade project by Matt Conway. Sunshade is available at:
  * http://sunshade.sourceforge.net/
  * 
@@ -53,156 +96,1000 @@ import org.eclipse.ui.PlatformUI;
  * 
  */
 public class FileOpenListener extends Thread {
+	
+	/**
+	 * First line of a batch request.  Each following line is a path to open, up to a blank line or the end of the
+	 * connection.
+	 */
+	private static final String BATCH_COMMAND = "-m";
+
+	/**
+	 * First line of a session.  Each following line is a request prefixed with an id.
+	 */
+	private static final String SESSION_COMMAND = "-s";
+
+	/**
+	 * Asks for the request latency table of {@link Metrics#getReport()}.
+	 */
+	private static final String STATS_COMMAND = "-stats";
+
+	/**
+	 * First line of a hits stream, optionally followed by the directory relative paths are resolved against. Each
+	 * following line is a "path:line[:column]: text" record shown in the Search view.
+	 */
+	private static final String HITS_COMMAND = "--hits";
+
+	/**
+	 * Answer to a request that is not accepted because too many are waiting.
+	 */
+	private static final String BUSY_REPLY = "BUSY retry";
 
-	private ServerSocket socket;
+	/**
+	 * How often clients are checked for timeouts.
+	 */
+	private static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * Longest a stopped listener keeps writing the replies owed to session clients.
+	 */
+	private static final long DRAIN_TIMEOUT_MILLIS = 2000;
+
+	private final Selector selector;
+	private volatile ServerSocketChannel socket;
+	private volatile ServerSocketChannel unixSocket;
+	private final Path unixSocketPath;
+	private final ExecutorService requestHandler;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final UIDispatcher dispatcher;
+	private final ConcurrentLinkedQueue<ClientConnection> writeRequests = new ConcurrentLinkedQueue<ClientConnection>();
+	private final ConcurrentLinkedQueue<ClientConnection> readRequests = new ConcurrentLinkedQueue<ClientConnection>();
+	private final ConcurrentLinkedQueue<ServerSocketChannel> rebinds = new ConcurrentLinkedQueue<ServerSocketChannel>();
 	private final ILog log;
-	private volatile boolean running = false;
+	private final CountDownLatch unbound = new CountDownLatch(1);
+	private volatile boolean running = true;
 
 	public boolean isRunning() {
 		return running;
 	}
 
-	synchronized public void setRunning(boolean running) {
-		this.running = running;
+	public FileOpenListener(ILog log, int port) throws IOException {
+		this(log, port, null);
 	}
 
-	public FileOpenListener(ILog log, int port) throws IOException {
+	/**
+	 * @param log
+	 * @param port
+	 *            TCP port to listen on, loopback clients only.
+	 * @param unixSocketPath
+	 *            if not null, also listen on a Unix domain socket at this path. If it cannot be bound a warning is
+	 *            logged and only the TCP port is listened on.
+	 * @throws IOException
+	 *             if the TCP port cannot be bound.
+	 */
+	public FileOpenListener(ILog log, int port, Path unixSocketPath) throws IOException {
 		super("File Open Listener");
 		this.log = log;
+		this.unixSocketPath = unixSocketPath;
 		setDaemon(true);
 
-		socket = new ServerSocket(port);
+		selector = Selector.open();
+		try {
+			socket = openSocket(port);
+			socket.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			closeServerSockets();
+			selector.close();
+			throw e;
+		}
+
+		if (unixSocketPath != null) {
+			try {
+				ServerSocketChannel channel = openUnixSocket(unixSocketPath);
+				try {
+					channel.register(selector, SelectionKey.OP_ACCEPT);
+				} catch (IOException e) {
+					channel.close();
+					Files.deleteIfExists(unixSocketPath);
+					throw e;
+				}
+				unixSocket = channel;
+			} catch (IOException e) {
+				// TCP clients are still served.
+				log.log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Not listening on Unix domain socket " + unixSocketPath + ". (" + e.getMessage() + ")"));
+			}
+		}
+
+		dispatcher = new UIDispatcher(log);
+		requestHandler = createRequestHandler();
+	}
+
+	/**
+	 * @return an executor that starts a virtual thread per task on Java 21 and later, or else a pool of a few daemon
+	 *         threads.
+	 */
+	private static ExecutorService createRequestHandler() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			// Older runtime.
+		}
+
+		return Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "File Open Request Handler " + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
 	}
 
 	@Override
 	public void run() {
-		BufferedReader reader = null;
-		Socket s = null;
-		running = true;
+		long lastSweep = System.nanoTime();
 		while (running) {
 			try {
-				s = socket.accept();
+				selector.select(SWEEP_INTERVAL_MILLIS);
+			} catch (IOException e) {
+				log.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Problem in listener.", e));
+				break;
+			}
+
+			// If we have been stopped exit immediately.
+			if (!running) {
+				break;
+			}
+
+			processRebinds();
+			processSelectedKeys();
+
+			long now = System.nanoTime();
+			if (now - lastSweep >= TimeUnit.MILLISECONDS.toNanos(SWEEP_INTERVAL_MILLIS)) {
+				closeTimedOut(now);
+				lastSweep = now;
+			}
+		}
+
+		// The server sockets are released once the selector has dropped their keys.
+		closeServerSockets();
+		try {
+			selector.selectNow();
+		} catch (IOException e) {
+		}
+		unbound.countDown();
+
+		drain();
+		requestHandler.shutdown();
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Move to a new TCP port without a gap: the new socket is bound before the old one is closed, clients that have
+	 * already connected to the old one are accepted first and connections that are open carry on as before.
+	 * 
+	 * @param port
+	 * @throws IOException
+	 *             if the port cannot be bound, the listener then keeps listening where it did.
+	 */
+	public void rebind(int port) throws IOException {
+		rebinds.add(openSocket(port));
+		selector.wakeup();
+
+		// Lost the race with shutdown().
+		if (!running) {
+			closeServerSockets();
+		}
+	}
+
+	/**
+	 * Switch to the sockets bound by {@link #rebind(int)}.
+	 */
+	private void processRebinds() {
+		ServerSocketChannel channel;
+		while ((channel = rebinds.poll()) != null) {
+			ServerSocketChannel old = socket;
+
+			try {
+				channel.register(selector, SelectionKey.OP_ACCEPT);
+				socket = channel;
+				accept(old);
+			} catch (IOException e) {
+				log.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Problem in listener.", e));
+			}
+
+			try {
+				(socket == channel ? old : channel).close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Accept, read and write whatever the last select found ready.
+	 */
+	private void processSelectedKeys() {
+		ClientConnection writer;
+		while ((writer = writeRequests.poll()) != null) {
+			SelectionKey key = writer.getKey();
+			if (key.isValid()) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
 
-				// If we have been interrupted exit immediately.
-				if (!running) {
+		ClientConnection reader;
+		while ((reader = readRequests.poll()) != null) {
+			SelectionKey key = reader.getKey();
+			if (key.isValid() && reader.hits != null) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+			}
+		}
+
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+
+			try {
+				if (!key.isValid()) {
 					continue;
 				}
 
-				// If the request comes from non-local address ignore.
-				if (!s.getInetAddress().isLoopbackAddress()) {
-					log.log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Ignoring a request from non-local client: " + s.getInetAddress().toString()));
+				if (key.isAcceptable()) {
+					accept((ServerSocketChannel) key.channel());
 					continue;
 				}
 
-				reader = new BufferedReader(new InputStreamReader(s.getInputStream()));
-				String line = reader.readLine();
+				if (key.isReadable()) {
+					read(key);
+				}
+
+				if (key.isValid() && key.isWritable()) {
+					write(key);
+				}
+			} catch (IOException e) {
+				log.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Problem in listener.", e));
+				if (key.channel() instanceof SocketChannel) {
+					close(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop the listener without waiting for it. The server sockets are closed right away, so from now on new clients
+	 * are refused; {@link #awaitUnbound(long, TimeUnit)} waits until their addresses can be bound again. Requests
+	 * already accepted are still carried out, and session clients are given up to {@link #DRAIN_TIMEOUT_MILLIS} to
+	 * receive their replies. Clients in the middle of sending a request are disconnected and the request dropped.
+	 */
+	public void shutdown() {
+		running = false;
+		closeServerSockets();
+		selector.wakeup();
+	}
+
+	/**
+	 * Complete the requests not yet handled, and any still to be read, with an error instead of handling them. Used
+	 * when the plug-in stops, as handling a request needs the plug-in; a listener that is only moved to another port
+	 * keeps handling its requests while it drains.
+	 */
+	public void stopDispatching() {
+		dispatcher.stop();
+	}
+
+	/**
+	 * Wait until a listener that has been shut down has released its addresses.
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return true if the addresses have been released, false if the timeout expired first.
+	 * @throws InterruptedException
+	 */
+	public boolean awaitUnbound(long timeout, TimeUnit unit) throws InterruptedException {
+		return unbound.await(timeout, unit);
+	}
+
+	/**
+	 * Close the clients of a stopped listener, those still owed replies once they have them or the drain timeout
+	 * expires. Requests still being handled when it does are dropped.
+	 */
+	private void drain() {
+		// Replies queued while the loop was exiting have woken a select that is gone, pass them on now.
+		processSelectedKeys();
+
+		for (SelectionKey key : selector.keys()) {
+			if (key.isValid() && key.attachment() instanceof ClientConnection) {
+				closeWhenDone(key, (ClientConnection) key.attachment());
+			}
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS);
+		long remaining;
+		while ((hasClients() || pending.get() > 0) && (remaining = deadline - System.nanoTime()) > 0) {
+			try {
+				selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+			} catch (IOException e) {
+				break;
+			}
+			processSelectedKeys();
+		}
+
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof ClientConnection) {
+				close(key);
+			}
+		}
+
+		if (pending.get() > 0) {
+			log.log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Listener stopped with " + pending.get() + " requests not handled."));
+		}
+	}
+
+	private boolean hasClients() {
+		for (SelectionKey key : selector.keys()) {
+			if (key.isValid() && key.attachment() instanceof ClientConnection) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Bind a TCP server socket.
+	 * 
+	 * @param port
+	 * @return
+	 * @throws IOException
+	 */
+	private static ServerSocketChannel openSocket(int port) throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			channel.socket().bind(new InetSocketAddress(port));
+			channel.configureBlocking(false);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		return channel;
+	}
+
+	/**
+	 * @return path of the Unix domain socket being listened on, or null if there is none.
+	 */
+	public Path getUnixSocketPath() {
+		return unixSocket != null ? unixSocketPath : null;
+	}
+
+	/**
+	 * Bind a Unix domain server socket. A socket file left behind by an instance that is no longer running is
+	 * replaced, one that still accepts connections is not.
+	 * 
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	private static ServerSocketChannel openUnixSocket(Path path) throws IOException {
+		UnixDomainSocketAddress address = UnixDomainSocketAddress.of(path);
+
+		if (Files.exists(path)) {
+			try {
+				SocketChannel.open(address).close();
+				throw new IOException("Unix domain socket " + path + " is in use by another listener.");
+			} catch (ConnectException e) {
+				Files.delete(path);
+			}
+		}
+
+		ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			channel.bind(address);
+			channel.configureBlocking(false);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		return channel;
+	}
+
+	/**
+	 * Stop accepting clients. May be called from any thread, any number of times.
+	 */
+	private void closeServerSockets() {
+		ServerSocketChannel channel;
+		while ((channel = rebinds.poll()) != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+		}
+
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+
+		if (unixSocket != null) {
+			try {
+				unixSocket.close();
+			} catch (IOException e) {
+			}
 
-				if (line == null || line.trim().length() == 0) {
+			try {
+				Files.deleteIfExists(unixSocketPath);
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Accept all pending clients and register them for reading.
+	 * 
+	 * @param server
+	 * @throws IOException
+	 */
+	private void accept(ServerSocketChannel server) throws IOException {
+		SocketChannel client;
+		while ((client = server.accept()) != null) {
+			// If the request comes from non-local address ignore. Unix domain clients are always local.
+			if (server != unixSocket) {
+				InetAddress address = ((InetSocketAddress) client.getRemoteAddress()).getAddress();
+
+				if (!address.isLoopbackAddress()) {
+					log.log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Ignoring a request from non-local client: " + address.toString()));
+					client.close();
 					continue;
 				}
-				
-				boolean projectMode = false;
-				boolean compareMode = false;
-				File file = null, cfile1 = null, cfile2 = null;
-				
-				if (line.trim().startsWith("-p ")) {
-					projectMode = true;
-					line = line.split(" ")[1];
-				} else if (line.trim().startsWith("-c ")) {
-				    compareMode = true;
-				    String[] fileLines = line.split(" ");
-				    
-				    if (fileLines.length != 3)
-				        continue;
-				    
-				    cfile1 = new File(fileLines[1]);
-				    cfile2 = new File(fileLines[2]);
-				}
-
-				if (!compareMode) {
-    				file = new File(line);
-    
-    				if (file.exists() && !file.isFile() && !projectMode) {
-    					continue;
-    				}
-    				
-    				if (file.exists() && !file.isDirectory() && projectMode) {
-    					continue;
-    				}
-				} else {				    
-				    if (!cfile1.exists()) {
-                        continue;
-                    }
-				    
-				    if (!cfile2.exists()) {
-                        continue;
-                    }
-				}
-				
-				final File ffile = file;
-				if (projectMode) {
-					PlatformUI.getWorkbench().getDisplay().syncExec(new Runnable() {
-						
-						public void run() {
-							try {
-								EclipseEditorHelper.createEclipseProjectForDirectory(ffile, true, PlatformUI.getWorkbench());
-							} catch (Exception e) {
-								log.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to open editor for file: " + ffile.getAbsolutePath(), e));
+			}
+
+			client.configureBlocking(false);
+			SelectionKey key = client.register(selector, SelectionKey.OP_READ);
+			key.attach(new ClientConnection(this, key, requestHandler));
+		}
+	}
+
+	/**
+	 * Read whatever a client has sent.  Once a full request has arrived (or the client has closed its end) the
+	 * request is passed on to the request handler.  Single requests and batches close the connection at that point,
+	 * sessions stay open until the client closes its end and every reply has been written.
+	 * 
+	 * @param key
+	 * @throws IOException
+	 */
+	private void read(SelectionKey key) throws IOException {
+		SocketChannel client = (SocketChannel) key.channel();
+		final ClientConnection connection = (ClientConnection) key.attachment();
+
+		int count = client.read(connection.buffer);
+		connection.lastRead = System.nanoTime();
+
+		connection.buffer.flip();
+
+		// A framed client announces itself with a NUL byte, which no request line starts with.
+		if (!connection.started && connection.buffer.hasRemaining() && connection.buffer.get(connection.buffer.position()) == 0) {
+			connection.buffer.get();
+			connection.started = true;
+			connection.frames = new FrameDecoder(new FrameDecoder.Handler() {
+
+				public void request(String command, List<String> fields) {
+					submit(connection, command, fields);
+				}
+			});
+			Metrics.getDefault().record(Metrics.Phase.ACCEPT, connection.accepted);
+		}
+
+		if (connection.frames != null) {
+			readFrames(key, connection, count < 0);
+			return;
+		}
+
+		try {
+			String line;
+			while ((line = connection.nextLine()) != null) {
+				if (received(key, connection, line)) {
+					return;
+				}
+			}
+		} finally {
+			connection.buffer.clear();
+		}
+
+		if (connection.hits != null) {
+			// Stop reading once the user has stopped the search.
+			if (connection.hits.isCanceled()) {
+				close(key);
+				return;
+			}
+			submitHits(connection);
+		}
+
+		if (count < 0) {
+			String line = connection.remainder();
+			if (line != null && received(key, connection, line)) {
+				return;
+			}
+
+			if (connection.session) {
+				closeWhenDone(key, connection);
+				return;
+			}
+
+			if (connection.batch != null) {
+				submitBatch(key, connection);
+			} else {
+				close(key);
+			}
+		} else if (connection.overflow()) {
+			log.log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Ignoring an oversized request from client."));
+			close(key);
+		}
+	}
+
+	/**
+	 * Decode the requests a framed client has sent so far. The connection is closed once the client has sent its last
+	 * request, or breaks the protocol.
+	 * 
+	 * @param key
+	 * @param connection
+	 * @param eof
+	 *            true if the client has closed its end.
+	 */
+	private void readFrames(SelectionKey key, ClientConnection connection, boolean eof) {
+		try {
+			try {
+				connection.frames.decode(connection.buffer);
+			} finally {
+				connection.buffer.clear();
+			}
+
+			if (eof) {
+				connection.frames.finish();
+			}
+		} catch (IllegalArgumentException e) {
+			log.log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Ignoring a framed request from client. (" + e.getMessage() + ")"));
+			close(key);
+			return;
+		}
+
+		if (connection.frames.isEnded()) {
+			closeWhenDone(key, connection);
+		}
+	}
+
+	/**
+	 * Handle a single line received from a client.
+	 * 
+	 * @param key
+	 * @param connection
+	 * @param line
+	 * @return true if the request is complete and the connection has been closed.
+	 */
+	private boolean received(SelectionKey key, ClientConnection connection, String line) {
+		if (!connection.started) {
+			connection.started = true;
+			Metrics.getDefault().record(Metrics.Phase.ACCEPT, connection.accepted);
+		}
+
+		if (connection.hits != null) {
+			connection.hitRecords.add(line);
+			return false;
+		}
+
+		if (connection.session) {
+			if (line.trim().length() > 0) {
+				submit(connection, line);
+			}
+			return false;
+		}
+
+		if (connection.batch == null) {
+			if (line.trim().equals(BATCH_COMMAND)) {
+				connection.batch = new ArrayList<String>();
+				return false;
+			}
+
+			if (line.trim().equals(STATS_COMMAND)) {
+				connection.expectReply();
+				connection.reply(Metrics.getDefault().getReport());
+				closeWhenDone(key, connection);
+				return true;
+			}
+
+			if (line.trim().equals(SESSION_COMMAND)) {
+				connection.session = true;
+				return false;
+			}
+
+			if (line.trim().equals(HITS_COMMAND) || line.trim().startsWith(HITS_COMMAND + " ")) {
+				String directory = line.trim().substring(HITS_COMMAND.length()).trim();
+
+				connection.hits = new HitStream(directory.length() > 0 ? new File(directory) : null);
+				connection.hitRecords = new ArrayList<String>();
+				return false;
+			}
+
+			if (line.trim().length() > 0 && isBusy()) {
+				replyBusy(connection, BUSY_REPLY);
+				closeWhenDone(key, connection);
+				return true;
+			}
+
+			close(key);
+			if (line.trim().length() > 0) {
+				submitLine(connection, line);
+			}
+			return true;
+		}
+
+		// A blank line ends a batch.
+		if (line.trim().length() == 0) {
+			submitBatch(key, connection);
+			return true;
+		}
+
+		connection.batch.add(line);
+		return false;
+	}
+
+	/**
+	 * Stop reading from a client. The connection is closed once every reply to it has been written.
+	 * 
+	 * @param key
+	 * @param connection
+	 */
+	private void closeWhenDone(SelectionKey key, ClientConnection connection) {
+		connection.eof = true;
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		if (connection.isDone()) {
+			close(key);
+		}
+	}
+
+	/**
+	 * Disconnect clients that have stopped sending in the middle of a request.
+	 * 
+	 * @param now
+	 */
+	private void closeTimedOut(long now) {
+		for (SelectionKey key : selector.keys()) {
+			Object attachment = key.attachment();
+
+			if (attachment instanceof ClientConnection && ((ClientConnection) attachment).isTimedOut(now)) {
+				log.log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Closing a client that sent nothing for " + ClientConnection.READ_TIMEOUT_SECONDS
+					+ " seconds in the middle of a request."));
+				close(key);
+			}
+		}
+	}
+
+	/**
+	 * @return true if too many requests are waiting to accept another one.
+	 */
+	private boolean isBusy() {
+		return pending.get() + dispatcher.getQueued() >= UIDispatcher.MAX_QUEUED_REQUESTS;
+	}
+
+	/**
+	 * Handle a request of a client after any it sent before. The request counts as pending until the task has passed
+	 * it on.
+	 * 
+	 * @param connection
+	 * @param task
+	 */
+	private void handle(ClientConnection connection, final Runnable task) {
+		pending.incrementAndGet();
+		connection.executor.execute(new Runnable() {
+
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					// A stopped listener waits for its last requests.
+					if (pending.decrementAndGet() == 0 && !running) {
+						selector.wakeup();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Turn a request away.
+	 * 
+	 * @param connection
+	 * @param reply
+	 */
+	private void replyBusy(ClientConnection connection, String reply) {
+		Metrics.getDefault().rejected();
+		connection.expectReply();
+		connection.reply(reply);
+	}
+
+	/**
+	 * Write queued replies to a session client.
+	 * 
+	 * @param key
+	 * @throws IOException
+	 */
+	private void write(SelectionKey key) throws IOException {
+		ClientConnection connection = (ClientConnection) key.attachment();
+
+		if (connection.flush()) {
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+			if (connection.isDone()) {
+				close(key);
+			}
+		}
+	}
+
+	/**
+	 * Ask the listener thread to write the queued replies of a connection.
+	 * 
+	 * @param connection
+	 */
+	void requestWrite(ClientConnection connection) {
+		writeRequests.add(connection);
+		selector.wakeup();
+	}
+
+	private void submitLine(ClientConnection connection, final String line) {
+		handle(connection, new Runnable() {
+
+			public void run() {
+				try {
+					long start = System.nanoTime();
+					StebRequest request = RequestParser.parse(line, null, null);
+					Metrics.getDefault().record(Metrics.Phase.PARSE, start);
+
+					dispatcher.dispatch(request);
+				} catch (IllegalArgumentException e) {
+					// Nobody to tell, ignore the request as before.
+				}
+			}
+		});
+	}
+
+	/**
+	 * Queue a framed request.
+	 * 
+	 * @param connection
+	 * @param command
+	 * @param fields
+	 */
+	private void submit(ClientConnection connection, final String command, final List<String> fields) {
+		// Only changes how the requests after it are read, there is nothing to carry out.
+		if (command.equals(RequestParser.DIRECTORY_COMMAND)) {
+			connection.directory = fields.size() == 1 ? new File(fields.get(0)) : null;
+			return;
+		}
+
+		if (isBusy()) {
+			replyBusy(connection, BUSY_REPLY);
+			return;
+		}
+
+		final File directory = connection.directory;
+		handle(connection, new Runnable() {
+
+			public void run() {
+				try {
+					long start = System.nanoTime();
+					StebRequest request = RequestParser.parseFields(command, fields, directory, null, null);
+					Metrics.getDefault().record(Metrics.Phase.PARSE, start);
+
+					dispatcher.dispatch(request);
+				} catch (IllegalArgumentException e) {
+					// Nobody to tell, as with request lines.
+				}
+			}
+		});
+	}
+
+	/**
+	 * Queue a session request, which is answered on the connection once it has been carried out.
+	 * 
+	 * @param connection
+	 * @param line
+	 *            "id request"
+	 */
+	private void submit(final ClientConnection connection, final String line) {
+		if (isBusy()) {
+			String trimmed = line.trim();
+			int split = trimmed.indexOf(' ');
+			replyBusy(connection, (split < 0 ? trimmed : trimmed.substring(0, split)) + " " + BUSY_REPLY);
+			return;
+		}
+
+		connection.expectReply();
+		handle(connection, new Runnable() {
+
+			public void run() {
+				String trimmed = line.trim();
+				int split = trimmed.indexOf(' ');
+				if (split < 0) {
+					connection.reply(trimmed + " ERR Missing request.");
+					return;
+				}
+
+				String id = trimmed.substring(0, split);
+				// Every request gets exactly one reply, or the connection would wait for the missing one forever.
+				final AtomicBoolean replied = new AtomicBoolean();
+				try {
+					long start = System.nanoTime();
+					StebRequest request = RequestParser.parse(trimmed.substring(split + 1), id, new StebRequest.Callback() {
+
+						public void completed(StebRequest request, IStatus status) {
+							if (!replied.compareAndSet(false, true)) {
+								return;
 							}
-						}
-	
-					});	
-				} else if (compareMode) {
-				        final File fcfile1 = cfile1, fcfile2 = cfile2;
-				        PlatformUI.getWorkbench().getDisplay().syncExec(new Runnable() {
-                        
-                        public void run() {
-                            try {
-                                EclipseEditorHelper.createEclipseCompareEditorForFiles(fcfile1, fcfile2, PlatformUI.getWorkbench());
-                            } catch (Exception e) {
-                                log.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to open editor for file: " + ffile.getAbsolutePath(), e));
-                            }
-                        }
-    
-                    }); 
-				} else {
-					PlatformUI.getWorkbench().getDisplay().syncExec(new Runnable() {
-	
-						public void run() {
-							try {
-								EclipseEditorHelper.openEclipseEditorForFile(ffile, true, PlatformUI.getWorkbench());
-							} catch (Exception e) {
-								log.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to open editor for file: " + ffile.getAbsolutePath(), e));
+
+							if (status.isOK()) {
+								connection.reply(request.getId() + " OK " + request.getElapsedMicros());
+							} else if (UIDispatcher.isBusy(status)) {
+								connection.reply(request.getId() + " " + BUSY_REPLY);
+							} else if (status.getSeverity() == IStatus.INFO) {
+								connection.reply(request.getId() + " OK " + request.getElapsedMicros() + " " + toSingleLine(status.getMessage()));
+							} else {
+								connection.reply(request.getId() + " ERR " + toSingleLine(status.getMessage()));
 							}
 						}
-	
 					});
-				}
-			} catch (IOException e) {
-				log.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Problem in listener.", e));
-			} finally {
-				if (reader != null) {
-					try {
-						reader.close();
-					} catch (IOException e) {
+					Metrics.getDefault().record(Metrics.Phase.PARSE, start);
+
+					// Answer compares of identical files from here, without waiting on the UI.
+					if (request.getType() == StebRequest.Type.COMPARE && isIdentical(request.getFiles().get(0), request.getFiles().get(1))) {
+						request.complete(new Status(IStatus.INFO, Activator.PLUGIN_ID, "Files are identical."));
+						return;
+					}
+
+					dispatcher.dispatch(request);
+				} catch (IllegalArgumentException e) {
+					if (replied.compareAndSet(false, true)) {
+						connection.reply(id + " ERR " + toSingleLine(e.getMessage()));
+					}
+				} catch (RuntimeException e) {
+					log.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to handle session request " + id + ".", e));
+					if (replied.compareAndSet(false, true)) {
+						connection.reply(id + " ERR " + toSingleLine(e.toString()));
 					}
 				}
+			}
+		});
+	}
+
+	/**
+	 * @param left
+	 * @param right
+	 * @return true if the files are known to have the same content.
+	 */
+	private static boolean isIdentical(File left, File right) {
+		// Directory trees are hashed by the compare editor, in parallel.
+		if (!left.isFile() || !right.isFile()) {
+			return false;
+		}
+
+		try {
+			return ContentHash.isIdentical(left, right);
+		} catch (IOException e) {
+			// Let the compare editor report the problem.
+			return false;
+		}
+	}
+
+	/**
+	 * Hand the hits records received so far over to the request handler. Nothing more is read from the client until
+	 * they have been added to the search result.
+	 * 
+	 * @param connection
+	 */
+	private void submitHits(ClientConnection connection) {
+		if (connection.hitRecords.isEmpty()) {
+			return;
+		}
 
-				if (s != null) {
-					try {
-						s.close();
-					} catch (IOException e) {
+		final ClientConnection client = connection;
+		final HitStream hits = connection.hits;
+		final List<String> records = connection.hitRecords;
+		connection.hitRecords = new ArrayList<String>();
+
+		// Leave the rest in the socket until the Search view has taken these, so a fast grep is slowed down
+		// rather than buffered.
+		SelectionKey key = connection.getKey();
+		if (key.isValid()) {
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		}
+
+		connection.executor.execute(new Runnable() {
+
+			public void run() {
+				try {
+					// Resolving hits needs the plug-in, a stopping one drops them.
+					if (!dispatcher.isStopped()) {
+						hits.add(records);
 					}
+				} finally {
+					readRequests.add(client);
+					selector.wakeup();
 				}
 			}
+		});
+	}
+
+	/**
+	 * Queue the batch a client has sent, or answer busy. The client is done sending either way.
+	 * 
+	 * @param key
+	 * @param connection
+	 */
+	private void submitBatch(SelectionKey key, ClientConnection connection) {
+		final List<String> lines = connection.batch;
+		if (lines.isEmpty()) {
+			close(key);
+			return;
 		}
 
-		if (socket != null) {
-			try {
-				socket.close();
-				socket = null;
-			} catch (IOException e) {
+		if (isBusy()) {
+			replyBusy(connection, BUSY_REPLY);
+			closeWhenDone(key, connection);
+			return;
+		}
+
+		close(key);
+
+		handle(connection, new Runnable() {
+
+			public void run() {
+				try {
+					long start = System.nanoTime();
+					StebRequest request = RequestParser.parseBatch(lines);
+					Metrics.getDefault().record(Metrics.Phase.PARSE, start);
+
+					dispatcher.dispatch(request);
+				} catch (IllegalArgumentException e) {
+				}
 			}
-		}		
+		});
+	}
+
+	private static String toSingleLine(String message) {
+		if (message == null) {
+			return "";
+		}
+
+		return message.replace('\r', ' ').replace('\n', ' ');
+	}
+
+	private void close(SelectionKey key) {
+		ClientConnection connection = (ClientConnection) key.attachment();
+
+		// A hits stream ends with its connection, whichever way that closes.
+		if (connection != null && connection.hits != null) {
+			final HitStream hits = connection.hits;
+			submitHits(connection);
+			connection.hits = null;
+
+			connection.executor.execute(new Runnable() {
+
+				public void run() {
+					hits.end();
+				}
+			});
+		}
+
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+		}
 	}
-}
\ No newline at end of file
+}
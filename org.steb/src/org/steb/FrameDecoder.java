@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes the framed form of the steb protocol, in which every field is ended by a NUL byte so that paths may hold
+ * spaces, newlines or anything else a file name can. A framed client starts with a NUL byte, which no request line
+ * can start with, then the version field "STEB/1". Each request that follows is a command field, any number of
+ * argument fields and an empty field. An empty command field ends the connection. Paths are relative to the
+ * directory sent with the "d" command, if any.
+ * 
+ * <pre>
+ * \0STEB/1\0 d\0 /home/me\0 \0 o\0 a b/c.txt\0 /d\0 \0 c\0 x\0 y\0 \0 \0
+ * </pre>
+ * 
+ * Shells write it with printf and find -print0. Fields are decoded straight out of the connection's read buffer; only
+ * a field that is split across two reads is copied, into a buffer that is kept for the life of the connection.
+ * 
+ * Only used from the listener thread.
+ * 
+ * @author kgilmer
+ * 
+ */
+class FrameDecoder {
+
+	/**
+	 * Receives the requests of a framed stream.
+	 */
+	interface Handler {
+		/**
+		 * @param command
+		 * @param fields
+		 *            the argument fields, handed over to the callee.
+		 */
+		void request(String command, List<String> fields);
+	}
+
+	static final String VERSION = "STEB/1";
+
+	/**
+	 * Longest field accepted from a client.
+	 */
+	private static final int MAX_FIELD_LENGTH = 64 * 1024;
+
+	private static final Charset CHARSET = Charset.defaultCharset();
+
+	private final Handler handler;
+	private byte[] partial = new byte[256];
+	private int partialLength;
+	private boolean versionRead;
+	private String command;
+	private List<String> fields = new ArrayList<String>();
+	private boolean ended;
+
+	/**
+	 * @param handler
+	 *            receives the requests.
+	 */
+	FrameDecoder(Handler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Decode every field the buffer holds, a trailing part of a field is kept for the next read.
+	 * 
+	 * @param buffer
+	 *            a heap buffer ready to be read.
+	 * @throws IllegalArgumentException
+	 *             if the client speaks another version or sends an oversized field.
+	 */
+	void decode(ByteBuffer buffer) {
+		byte[] array = buffer.array();
+		int offset = buffer.arrayOffset();
+		int start = buffer.position();
+		int limit = buffer.limit();
+
+		for (int p = start; p < limit && !ended; ++p) {
+			if (array[offset + p] != 0) {
+				continue;
+			}
+
+			String field;
+			if (partialLength == 0) {
+				field = new String(array, offset + start, p - start, CHARSET);
+			} else {
+				append(array, offset + start, p - start);
+				field = new String(partial, 0, partialLength, CHARSET);
+				partialLength = 0;
+			}
+			start = p + 1;
+
+			field(field);
+		}
+
+		if (!ended) {
+			append(array, offset + start, limit - start);
+		}
+		buffer.position(limit);
+	}
+
+	/**
+	 * The client has closed its end, a request it did not terminate is still carried out.
+	 */
+	void finish() {
+		if (ended) {
+			return;
+		}
+
+		if (partialLength > 0) {
+			field(new String(partial, 0, partialLength, CHARSET));
+			partialLength = 0;
+		}
+		if (command != null) {
+			field("");
+		}
+		ended = true;
+	}
+
+	/**
+	 * @return true if the client has sent its version and no part of a field is waiting for the rest.
+	 */
+	boolean isBetweenFields() {
+		return versionRead && partialLength == 0;
+	}
+
+	/**
+	 * @return true once the client has sent its last request.
+	 */
+	boolean isEnded() {
+		return ended;
+	}
+
+	private void field(String field) {
+		if (!versionRead) {
+			if (!field.equals(VERSION)) {
+				throw new IllegalArgumentException("Unsupported protocol version: " + field);
+			}
+			versionRead = true;
+		} else if (command == null) {
+			if (field.length() == 0) {
+				ended = true;
+			} else {
+				command = field;
+			}
+		} else if (field.length() > 0) {
+			fields.add(field);
+		} else {
+			List<String> request = fields;
+			fields = new ArrayList<String>();
+			handler.request(command, request);
+			command = null;
+		}
+	}
+
+	private void append(byte[] src, int from, int length) {
+		if (partialLength + length > MAX_FIELD_LENGTH) {
+			throw new IllegalArgumentException("Field too long.");
+		}
+
+		if (partialLength + length > partial.length) {
+			partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + length));
+		}
+		System.arraycopy(src, from, partial, partialLength, length);
+		partialLength += length;
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A prefix tree keyed by path segments. Used to find the deepest registered location that contains a given path
+ * with one walk down the tree.
+ * 
+ * Not thread safe, build a new trie instead of changing one that is being read.
+ * 
+ * @author kgilmer
+ * 
+ * @param <T>
+ */
+public class LocationTrie<T> {
+
+	/**
+	 * The result of a lookup: the value registered for the deepest matching location and the number of segments that
+	 * location has.
+	 */
+	public static class Match<T> {
+		private final T value;
+		private final int depth;
+
+		Match(T value, int depth) {
+			this.value = value;
+			this.depth = depth;
+		}
+
+		public T getValue() {
+			return value;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+	}
+
+	private static class Node<T> {
+		private Map<String, Node<T>> children;
+		private T value;
+
+		Node<T> child(String segment) {
+			return children == null ? null : children.get(segment);
+		}
+
+		Node<T> getOrCreateChild(String segment) {
+			if (children == null) {
+				children = new HashMap<String, Node<T>>(4);
+			}
+
+			Node<T> child = children.get(segment);
+			if (child == null) {
+				child = new Node<T>();
+				children.put(segment, child);
+			}
+			return child;
+		}
+	}
+
+	private final Node<T> root = new Node<T>();
+	private int size;
+
+	/**
+	 * Register a value for a location, replacing any value already registered for it.
+	 * 
+	 * @param segments
+	 * @param value
+	 */
+	public void put(String[] segments, T value) {
+		Node<T> node = root;
+		for (String segment : segments) {
+			node = node.getOrCreateChild(segment);
+		}
+
+		if (node.value == null) {
+			size++;
+		}
+		node.value = value;
+	}
+
+	/**
+	 * @param segments
+	 * @return the value registered for the deepest location that is a prefix of (or equal to) segments, or null if
+	 *         there is none.
+	 */
+	public Match<T> findLongestPrefix(String[] segments) {
+		Node<T> node = root;
+		T value = root.value;
+		int depth = 0;
+
+		for (int i = 0; i < segments.length; ++i) {
+			node = node.child(segments[i]);
+			if (node == null) {
+				break;
+			}
+
+			if (node.value != null) {
+				value = node.value;
+				depth = i + 1;
+			}
+		}
+
+		if (value == null) {
+			return null;
+		}
+		return new Match<T>(value, depth);
+	}
+
+	/**
+	 * @return number of registered locations.
+	 */
+	public int size() {
+		return size;
+	}
+}
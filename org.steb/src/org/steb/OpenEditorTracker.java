@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import java.io.File;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.ui.IEditorInput;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.IEditorReference;
+import org.eclipse.ui.IPartListener2;
+import org.eclipse.ui.IPathEditorInput;
+import org.eclipse.ui.IURIEditorInput;
+import org.eclipse.ui.IWindowListener;
+import org.eclipse.ui.IWorkbench;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.IWorkbenchPartReference;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PartInitException;
+
+/**
+ * Keeps track of the editors that are open on local files, by file location, so that a request for a file that is
+ * already open can just bring its editor to the front instead of going through IWorkbenchPage.openEditor().
+ * 
+ * Only used from the UI thread.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class OpenEditorTracker implements IPartListener2, IWindowListener {
+
+	private final IWorkbench workbench;
+	private final Map<String, IEditorReference> editors = new HashMap<String, IEditorReference>();
+	private final Map<IEditorReference, String> locations = new HashMap<IEditorReference, String>();
+
+	public OpenEditorTracker(IWorkbench workbench) {
+		this.workbench = workbench;
+	}
+
+	/**
+	 * Start tracking the editors of every workbench window. Must be called from the UI thread.
+	 */
+	public void install() {
+		workbench.addWindowListener(this);
+
+		for (IWorkbenchWindow window : workbench.getWorkbenchWindows()) {
+			windowOpened(window);
+		}
+	}
+
+	public void uninstall() {
+		workbench.removeWindowListener(this);
+
+		for (IWorkbenchWindow window : workbench.getWorkbenchWindows()) {
+			window.getPartService().removePartListener(this);
+		}
+		editors.clear();
+		locations.clear();
+	}
+
+	/**
+	 * Bring the editor already open on file to the front.
+	 *
+	 * @param file
+	 * @param page
+	 *            only an editor of this page is activated.
+	 * @return the activated editor, or null if there is no editor for file on page.
+	 */
+	public IEditorPart activate(File file, IWorkbenchPage page) {
+		IEditorReference reference = editors.get(file.getAbsolutePath());
+
+		if (reference == null || reference.getPage() != page) {
+			return null;
+		}
+
+		IEditorPart editor = reference.getEditor(true);
+		if (editor == null) {
+			return null;
+		}
+
+		page.activate(editor);
+		return editor;
+	}
+
+	private void track(IWorkbenchPartReference partRef) {
+		if (!(partRef instanceof IEditorReference)) {
+			return;
+		}
+
+		IEditorReference reference = (IEditorReference) partRef;
+		untrack(reference);
+
+		String location = getLocation(reference);
+		if (location != null) {
+			editors.put(location, reference);
+			locations.put(reference, location);
+		}
+	}
+
+	private void untrack(IWorkbenchPartReference partRef) {
+		String location = locations.remove(partRef);
+
+		if (location != null && editors.get(location) == partRef) {
+			editors.remove(location);
+		}
+	}
+
+	/**
+	 * @param reference
+	 * @return absolute path of the local file an editor is open on, or null.
+	 */
+	private static String getLocation(IEditorReference reference) {
+		IEditorInput input;
+		try {
+			input = reference.getEditorInput();
+		} catch (PartInitException e) {
+			return null;
+		}
+
+		if (input instanceof IPathEditorInput) {
+			return ((IPathEditorInput) input).getPath().toOSString();
+		}
+
+		if (input instanceof IURIEditorInput) {
+			URI uri = ((IURIEditorInput) input).getURI();
+
+			if (uri != null && "file".equals(uri.getScheme())) {
+				return new File(uri).getAbsolutePath();
+			}
+		}
+
+		return null;
+	}
+
+	public void windowOpened(IWorkbenchWindow window) {
+		window.getPartService().addPartListener(this);
+
+		for (IWorkbenchPage page : window.getPages()) {
+			for (IEditorReference reference : page.getEditorReferences()) {
+				track(reference);
+			}
+		}
+	}
+
+	public void windowClosed(IWorkbenchWindow window) {
+		window.getPartService().removePartListener(this);
+
+		// The pages of a closed window may already be gone, so look the window's editors up by their page.
+		Iterator<IEditorReference> i = locations.keySet().iterator();
+		while (i.hasNext()) {
+			IEditorReference reference = i.next();
+			IWorkbenchPage page = reference.getPage();
+
+			if (page == null || page.getWorkbenchWindow() == window) {
+				String location = locations.get(reference);
+				if (editors.get(location) == reference) {
+					editors.remove(location);
+				}
+				i.remove();
+			}
+		}
+	}
+
+	public void windowActivated(IWorkbenchWindow window) {
+	}
+
+	public void windowDeactivated(IWorkbenchWindow window) {
+	}
+
+	public void partOpened(IWorkbenchPartReference partRef) {
+		track(partRef);
+	}
+
+	public void partInputChanged(IWorkbenchPartReference partRef) {
+		track(partRef);
+	}
+
+	public void partClosed(IWorkbenchPartReference partRef) {
+		untrack(partRef);
+	}
+
+	public void partActivated(IWorkbenchPartReference partRef) {
+	}
+
+	public void partBroughtToTop(IWorkbenchPartReference partRef) {
+	}
+
+	public void partDeactivated(IWorkbenchPartReference partRef) {
+	}
+
+	public void partHidden(IWorkbenchPartReference partRef) {
+	}
+
+	public void partVisible(IWorkbenchPartReference partRef) {
+	}
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IProjectDescription;
+import org.eclipse.core.resources.IResourceRuleFactory;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.eclipse.core.runtime.jobs.MultiRule;
+
+/**
+ * Creates the projects of project requests.
+ * 
+ * The projects of a request are created by one job in a single workspace operation. The job's scheduling rule asks
+ * for the create and modify rules of just those projects rather than the workspace root, so imports of unrelated
+ * directories may run side by side; how far they really overlap depends on the rules the platform hands out for
+ * project creation. A directory that an earlier request is still importing is not imported again: the later request
+ * waits for the earlier job and reports its outcome. Each request is completed once all of its projects are done.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class ProjectCreationScheduler {
+
+	/**
+	 * Jobs that are creating projects, by location of the project directory.
+	 */
+	private final Map<String, CreateJob> inFlight = new HashMap<String, CreateJob>();
+
+	/**
+	 * Create the projects of a {@link StebRequest.Type#PROJECT} or {@link StebRequest.Type#NESTED_PROJECTS} request
+	 * and complete it with the outcome. Never blocks.
+	 * 
+	 * @param request
+	 */
+	public void schedule(final StebRequest request) {
+		if (request.getType() != StebRequest.Type.NESTED_PROJECTS) {
+			submit(request, request.getFiles());
+			return;
+		}
+
+		Job find = new Job("Find projects") {
+
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				submit(request, ProjectFinder.find(request.getFiles(), EclipseEditorHelper.getExcludedFolders()));
+				return Status.OK_STATUS;
+			}
+		};
+		find.setSystem(true);
+		find.schedule();
+	}
+
+	private void submit(StebRequest request, List<File> directories) {
+		IWorkspace workspace = ResourcesPlugin.getWorkspace();
+		Outcome outcome = new Outcome(request);
+		Map<String, Creation> creations = new LinkedHashMap<String, Creation>();
+
+		for (File directory : directories) {
+			try {
+				creations.put(getLocation(directory), new Creation(directory, EclipseEditorHelper.describeProject(workspace, directory)));
+			} catch (CoreException e) {
+				IStatus status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to create project for directory: " + directory.getAbsolutePath(), e);
+				Activator.getDefault().getLog().log(status);
+				outcome.add(status);
+			}
+		}
+
+		CreateJob job = null;
+		synchronized (inFlight) {
+			for (String location : new ArrayList<String>(creations.keySet())) {
+				CreateJob running = inFlight.get(location);
+
+				if (running != null) {
+					creations.remove(location);
+					running.addWaiter(outcome, location);
+				}
+			}
+
+			if (!creations.isEmpty()) {
+				job = new CreateJob(workspace, creations);
+				for (String location : creations.keySet()) {
+					inFlight.put(location, job);
+					job.addWaiter(outcome, location);
+				}
+			}
+		}
+
+		if (job != null) {
+			job.schedule();
+		}
+		outcome.ready();
+	}
+
+	/**
+	 * @param directory
+	 * @return a key that is the same for all paths of directory.
+	 */
+	private static String getLocation(File directory) {
+		try {
+			return directory.getCanonicalPath();
+		} catch (IOException e) {
+			return directory.getAbsolutePath();
+		}
+	}
+
+	private static class Creation {
+		final File directory;
+		final IProjectDescription description;
+		IStatus result;
+
+		Creation(File directory, IProjectDescription description) {
+			this.directory = directory;
+			this.description = description;
+		}
+	}
+
+	/**
+	 * Creates a set of projects with a rule that covers only them.
+	 */
+	private class CreateJob extends Job {
+
+		private final IWorkspace workspace;
+		private final Map<String, Creation> creations;
+		private final Map<Outcome, List<String>> waiters = new HashMap<Outcome, List<String>>();
+
+		CreateJob(IWorkspace workspace, Map<String, Creation> creations) {
+			super("Create projects");
+			this.workspace = workspace;
+			this.creations = creations;
+
+			IResourceRuleFactory factory = workspace.getRuleFactory();
+			ISchedulingRule rule = null;
+			for (Creation creation : creations.values()) {
+				IProject project = workspace.getRoot().getProject(creation.description.getName());
+				rule = MultiRule.combine(rule, factory.createRule(project));
+				rule = MultiRule.combine(rule, factory.modifyRule(project));
+			}
+			setRule(rule);
+
+			addJobChangeListener(new JobChangeAdapter() {
+
+				@Override
+				public void done(IJobChangeEvent event) {
+					finished(event.getResult());
+				}
+			});
+		}
+
+		/**
+		 * Must hold the lock on inFlight.
+		 * 
+		 * @param outcome
+		 * @param location
+		 */
+		void addWaiter(Outcome outcome, String location) {
+			List<String> locations = waiters.get(outcome);
+
+			if (locations == null) {
+				locations = new ArrayList<String>();
+				waiters.put(outcome, locations);
+				outcome.expect();
+			}
+			locations.add(location);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			final Set<String> excluded = EclipseEditorHelper.getExcludedFolders();
+			final MultiStatus result = new MultiStatus(Activator.PLUGIN_ID, 0, "Failed to create projects.", null);
+
+			try {
+				workspace.run(new IWorkspaceRunnable() {
+
+					public void run(IProgressMonitor monitor) throws CoreException {
+						SubMonitor progress = SubMonitor.convert(monitor, "Create projects", creations.size());
+
+						for (Creation creation : creations.values()) {
+							try {
+								EclipseEditorHelper.createProject(workspace, creation.directory, creation.description, excluded, progress.newChild(1));
+								creation.result = Status.OK_STATUS;
+							} catch (CoreException e) {
+								creation.result = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to create project for directory: "
+									+ creation.directory.getAbsolutePath(), e);
+								result.add(creation.result);
+							}
+						}
+					}
+				}, getRule(), IWorkspace.AVOID_UPDATE, monitor);
+			} catch (CoreException e) {
+				return new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to create projects.", e);
+			}
+
+			return result.isOK() ? Status.OK_STATUS : result;
+		}
+
+		/**
+		 * Stop accepting waiters and tell the current ones how their projects went. Also runs if the job was
+		 * canceled before it started.
+		 * 
+		 * @param status
+		 *            of the whole job.
+		 */
+		private void finished(IStatus status) {
+			Map<Outcome, List<String>> done;
+
+			synchronized (inFlight) {
+				for (String location : creations.keySet()) {
+					if (inFlight.get(location) == this) {
+						inFlight.remove(location);
+					}
+				}
+				done = new HashMap<Outcome, List<String>>(waiters);
+				waiters.clear();
+			}
+
+			for (Map.Entry<Outcome, List<String>> entry : done.entrySet()) {
+				for (String location : entry.getValue()) {
+					IStatus result = creations.get(location).result;
+					entry.getKey().add(result == null ? status : result);
+				}
+				entry.getKey().jobDone();
+			}
+		}
+	}
+
+	/**
+	 * Collects the outcome of one request over the jobs it waits for.
+	 */
+	private static class Outcome {
+
+		private final StebRequest request;
+		private final List<IStatus> problems = new ArrayList<IStatus>();
+
+		/**
+		 * Jobs still to finish, plus one until {@link #ready()}.
+		 */
+		private int pending = 1;
+
+		Outcome(StebRequest request) {
+			this.request = request;
+		}
+
+		synchronized void expect() {
+			pending++;
+		}
+
+		synchronized void add(IStatus status) {
+			if (!status.isOK()) {
+				problems.add(status);
+			}
+		}
+
+		void ready() {
+			jobDone();
+		}
+
+		void jobDone() {
+			IStatus status;
+
+			synchronized (this) {
+				if (--pending > 0) {
+					return;
+				}
+
+				if (problems.isEmpty()) {
+					status = Status.OK_STATUS;
+				} else if (problems.size() == 1) {
+					status = problems.get(0);
+				} else {
+					MultiStatus multi = new MultiStatus(Activator.PLUGIN_ID, 0, "Failed to create " + problems.size() + " projects.", null);
+					for (IStatus problem : problems) {
+						multi.add(problem);
+					}
+					status = multi;
+				}
+			}
+
+			request.complete(status);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds the directories below a directory that hold an Eclipse project description (.project file). Subdirectories
+ * are searched in parallel on the common fork-join pool.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class ProjectFinder extends RecursiveTask<List<File>> {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String DESCRIPTION_FILE_NAME = ".project";
+
+	private final File directory;
+	private final Set<String> excluded;
+
+	private ProjectFinder(File directory, Set<String> excluded) {
+		this.directory = directory;
+		this.excluded = excluded;
+	}
+
+	/**
+	 * @param directories
+	 * @param excluded
+	 *            names of directories that are not searched.
+	 * @return every directory at or below one of directories that holds a .project file, parents before their nested
+	 *         projects. A directory without any project below it is returned itself.
+	 */
+	public static List<File> find(List<File> directories, Set<String> excluded) {
+		List<File> roots = new ArrayList<File>();
+
+		for (File directory : directories) {
+			List<File> found = ForkJoinPool.commonPool().invoke(new ProjectFinder(directory, excluded));
+
+			if (found.isEmpty()) {
+				roots.add(directory);
+			} else {
+				roots.addAll(found);
+			}
+		}
+
+		return roots;
+	}
+
+	@Override
+	protected List<File> compute() {
+		File[] entries = directory.listFiles();
+		if (entries == null) {
+			return Collections.emptyList();
+		}
+
+		List<File> found = new ArrayList<File>();
+		List<ProjectFinder> tasks = new ArrayList<ProjectFinder>();
+
+		for (File entry : entries) {
+			if (entry.getName().equals(DESCRIPTION_FILE_NAME) && entry.isFile()) {
+				found.add(directory);
+			} else if (entry.isDirectory() && !entry.getName().startsWith(".") && !excluded.contains(entry.getName())
+				&& !Files.isSymbolicLink(entry.toPath())) {
+				tasks.add(new ProjectFinder(entry, excluded));
+			}
+		}
+		invokeAll(tasks);
+
+		for (ProjectFinder task : tasks) {
+			found.addAll(task.join());
+		}
+
+		return found;
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns request lines sent by clients into {@link StebRequest}s.
+ * 
+ * A request line is either a path to open, "-p [-r] directory..." to create projects or "-c file1 file2" to compare two
+ * files or two directories.
+ * 
+ * Framed requests (see {@link FrameDecoder}) carry the same requests as a command field and one field per path, see
+ * {@link #parseFields(String, List, File, String, StebRequest.Callback)}. Their paths may be relative to the client's
+ * working directory and are canonicalized here, so clients need not run realpath.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class RequestParser {
+
+	/**
+	 * Given right after "-p", import the projects found below the directories.
+	 */
+	private static final String NESTED_OPTION = "-r";
+
+	/**
+	 * Commands of framed requests.
+	 */
+	static final String OPEN_COMMAND = "o";
+	static final String COMPARE_COMMAND = "c";
+	static final String PROJECT_COMMAND = "p";
+	static final String NESTED_PROJECTS_COMMAND = "r";
+
+	/**
+	 * Command of a framed request whose single field is the client's working directory. It applies to the requests
+	 * that follow it on the same connection.
+	 */
+	static final String DIRECTORY_COMMAND = "d";
+
+	private RequestParser() {
+	}
+
+	/**
+	 * @param line
+	 * @param id
+	 *            client supplied id of the request, may be null.
+	 * @param callback
+	 *            may be null.
+	 * @return the request.
+	 * @throws IllegalArgumentException
+	 *             if the line is not a valid request, the message says why.
+	 */
+	public static StebRequest parse(String line, String id, StebRequest.Callback callback) {
+		if (line.trim().length() == 0) {
+			throw new IllegalArgumentException("Empty request.");
+		}
+
+		if (line.trim().startsWith("-p ")) {
+			return parseProject(line.trim().split(" "), id, callback);
+		} else if (line.trim().startsWith("-c ")) {
+		    String[] fileLines = line.split(" ");
+		    
+		    if (fileLines.length != 3)
+		        throw new IllegalArgumentException("Compare needs exactly two files or directories.");
+		    
+		    return parseCompare(new File(fileLines[1]), new File(fileLines[2]), id, callback);
+		}
+
+		File file = new File(line);
+		if (file.exists() && !file.isFile()) {
+			throw new IllegalArgumentException("Not a file: " + line);
+		}
+
+		return new StebRequest(StebRequest.Type.OPEN, Arrays.asList(file), id, callback);
+	}
+
+	/**
+	 * @param args
+	 *            "-p", optionally "-r", then one or more directories.
+	 * @param id
+	 * @param callback
+	 * @return a request to create a project for each directory, or with "-r" for each project found below them.
+	 */
+	private static StebRequest parseProject(String[] args, String id, StebRequest.Callback callback) {
+		boolean nested = args.length > 1 && args[1].equals(NESTED_OPTION);
+
+		return parseProject(nested, Arrays.asList(args).subList(nested ? 2 : 1, args.length), id, callback);
+	}
+
+	/**
+	 * @param nested
+	 * @param paths
+	 *            directories, empty ones are skipped.
+	 * @param id
+	 * @param callback
+	 * @return a request to create a project for each directory, or if nested for each project found below them.
+	 */
+	private static StebRequest parseProject(boolean nested, List<String> paths, String id, StebRequest.Callback callback) {
+		List<File> directories = new ArrayList<File>(paths.size());
+
+		for (String path : paths) {
+			if (path.length() == 0) {
+				continue;
+			}
+
+			File directory = new File(path);
+			if (directory.exists() && !directory.isDirectory()) {
+				throw new IllegalArgumentException("Not a directory: " + path);
+			}
+			directories.add(directory);
+		}
+
+		if (directories.isEmpty()) {
+			throw new IllegalArgumentException("No directory given.");
+		}
+
+		return new StebRequest(nested ? StebRequest.Type.NESTED_PROJECTS : StebRequest.Type.PROJECT, directories, id, callback);
+	}
+
+	/**
+	 * @param left
+	 * @param right
+	 * @param id
+	 * @param callback
+	 * @return a request to compare two files or two directories.
+	 */
+	private static StebRequest parseCompare(File left, File right, String id, StebRequest.Callback callback) {
+		if (!left.exists()) {
+			throw new IllegalArgumentException("No such file: " + left);
+		}
+
+		if (!right.exists()) {
+			throw new IllegalArgumentException("No such file: " + right);
+		}
+
+		if (left.isDirectory() != right.isDirectory()) {
+			throw new IllegalArgumentException("Cannot compare a file with a directory.");
+		}
+
+		return new StebRequest(StebRequest.Type.COMPARE, Arrays.asList(left, right), id, callback);
+	}
+
+	/**
+	 * @param command
+	 *            command field of a framed request.
+	 * @param fields
+	 *            the paths that follow it.
+	 * @param directory
+	 *            the client's working directory, see {@link #DIRECTORY_COMMAND}. May be null, relative paths then
+	 *            stay workspace relative ("project/path/to/file.txt").
+	 * @param id
+	 * @param callback
+	 * @return the request.
+	 * @throws IllegalArgumentException
+	 *             if the command is unknown or its paths are not valid, the message says why.
+	 */
+	public static StebRequest parseFields(String command, List<String> fields, File directory, String id, StebRequest.Callback callback) {
+		CanonicalPathCache cache = CanonicalPathCache.getDefault();
+		for (int i = 0; i < fields.size(); ++i) {
+			fields.set(i, cache.canonicalize(directory, fields.get(i)));
+		}
+
+		if (command.equals(OPEN_COMMAND)) {
+			return parseOpen(fields, id, callback);
+		}
+
+		if (command.equals(COMPARE_COMMAND)) {
+			if (fields.size() != 2) {
+				throw new IllegalArgumentException("Compare needs exactly two files or directories.");
+			}
+			return parseCompare(new File(fields.get(0)), new File(fields.get(1)), id, callback);
+		}
+
+		if (command.equals(PROJECT_COMMAND) || command.equals(NESTED_PROJECTS_COMMAND)) {
+			return parseProject(command.equals(NESTED_PROJECTS_COMMAND), fields, id, callback);
+		}
+
+		throw new IllegalArgumentException("Unknown command: " + command);
+	}
+
+	/**
+	 * @param lines
+	 *            one path per line.
+	 * @return a single open request for every path that is not a directory.
+	 * @throws IllegalArgumentException
+	 *             if no path is left to open.
+	 */
+	public static StebRequest parseBatch(List<String> lines) {
+		return parseOpen(lines, null, null);
+	}
+
+	private static StebRequest parseOpen(List<String> paths, String id, StebRequest.Callback callback) {
+		List<File> files = new ArrayList<File>(paths.size());
+		for (String path : paths) {
+			File file = new File(path);
+
+			if (file.exists() && !file.isFile()) {
+				continue;
+			}
+			files.add(file);
+		}
+
+		if (files.isEmpty()) {
+			throw new IllegalArgumentException("No files to open.");
+		}
+
+		return new StebRequest(StebRequest.Type.OPEN, files, id, callback);
+	}
+}
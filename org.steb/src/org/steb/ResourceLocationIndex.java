@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Maps file system locations to the workspace resources (open projects, and linked folders and files at any depth)
+ * that hold them, so that a path can be resolved to an {@link IFile} with one walk down a {@link LocationTrie}
+ * instead of IWorkspaceRoot.findFilesForLocation(), which scans every project and linked resource.
+ * 
+ * The index is rebuilt lazily, on the first lookup after a resource change added, removed, opened or closed a
+ * project or a linked resource, or pointed a linked resource somewhere else.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class ResourceLocationIndex implements IResourceChangeListener {
+
+	private final IWorkspace workspace;
+	private volatile LocationTrie<IResource> trie;
+	/**
+	 * Full paths of the linked resources in trie, removal deltas do not say whether a resource was linked.
+	 */
+	private volatile Set<IPath> linkedPaths = Collections.emptySet();
+	/**
+	 * Count of resource changes that affect the index, and the count the current trie was built for. The trie is
+	 * published before builtChanges so a reader that sees the counts match also sees a trie at least that recent.
+	 */
+	private volatile int changes;
+	private volatile int builtChanges = -1;
+
+	public ResourceLocationIndex(IWorkspace workspace) {
+		this.workspace = workspace;
+	}
+
+	/**
+	 * Start following workspace changes.
+	 */
+	public void install() {
+		workspace.addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE);
+	}
+
+	public void uninstall() {
+		workspace.removeResourceChangeListener(this);
+	}
+
+	/**
+	 * @param location
+	 *            absolute file system location.
+	 * @return the workspace file at location, or null if location is not a linked file or inside an open project or
+	 *         linked folder.
+	 */
+	public IFile findFile(IPath location) {
+		LocationTrie.Match<IResource> match = getTrie().findLongestPrefix(location.segments());
+
+		if (match == null) {
+			return null;
+		}
+
+		IResource resource = match.getValue();
+
+		if (match.getDepth() == location.segmentCount()) {
+			return resource instanceof IFile ? (IFile) resource : null;
+		}
+
+		if (!(resource instanceof IContainer)) {
+			return null;
+		}
+
+		return ((IContainer) resource).getFile(location.removeFirstSegments(match.getDepth()).setDevice(null));
+	}
+
+	private LocationTrie<IResource> getTrie() {
+		if (builtChanges != changes) {
+			synchronized (this) {
+				// Read the count before building so a change during the rebuild triggers another one.
+				int target = changes;
+				if (builtChanges != target) {
+					trie = build();
+					builtChanges = target;
+				}
+			}
+		}
+
+		return trie;
+	}
+
+	private LocationTrie<IResource> build() {
+		final LocationTrie<IResource> result = new LocationTrie<IResource>();
+		final Set<IPath> linked = new HashSet<IPath>();
+
+		for (IProject project : workspace.getRoot().getProjects()) {
+			if (!project.isOpen()) {
+				continue;
+			}
+
+			add(result, project);
+
+			try {
+				// Links may be nested at any depth, a proxy walk visits members without creating resource handles.
+				project.accept(new IResourceProxyVisitor() {
+
+					public boolean visit(IResourceProxy proxy) {
+						if (proxy.isLinked()) {
+							IResource resource = proxy.requestResource();
+							linked.add(resource.getFullPath());
+							add(result, resource);
+						}
+
+						return proxy.getType() != IResource.FILE;
+					}
+				}, IResource.NONE);
+			} catch (CoreException e) {
+				// Project closed while we looked at it, the next change rebuilds the index.
+			}
+		}
+
+		linkedPaths = linked;
+		return result;
+	}
+
+	private static void add(LocationTrie<IResource> trie, IResource resource) {
+		IPath location = resource.getLocation();
+
+		if (location != null) {
+			trie.put(location.segments(), resource);
+		}
+	}
+
+	public void resourceChanged(IResourceChangeEvent event) {
+		IResourceDelta delta = event.getDelta();
+
+		if (delta == null) {
+			return;
+		}
+
+		final Set<IPath> linked = linkedPaths;
+		final boolean[] affected = new boolean[1];
+
+		try {
+			delta.accept(new IResourceDeltaVisitor() {
+
+				public boolean visit(IResourceDelta resourceDelta) {
+					if (affected[0]) {
+						return false;
+					}
+
+					affected[0] = affectsIndex(resourceDelta, linked);
+					return !affected[0];
+				}
+			});
+		} catch (CoreException e) {
+			affected[0] = true;
+		}
+
+		if (affected[0]) {
+			changes++;
+		}
+	}
+
+	/**
+	 * @param resourceDelta
+	 *            change to one resource.
+	 * @param linked
+	 *            full paths of the linked resources in the current index.
+	 * @return true if the change adds, removes, opens, closes or moves a project or a linked resource.
+	 */
+	private static boolean affectsIndex(IResourceDelta resourceDelta, Set<IPath> linked) {
+		IResource resource = resourceDelta.getResource();
+		int kind = resourceDelta.getKind();
+		int flags = resourceDelta.getFlags();
+
+		if (resource.getType() == IResource.PROJECT) {
+			if (kind == IResourceDelta.ADDED || kind == IResourceDelta.REMOVED) {
+				return true;
+			}
+
+			return (flags & (IResourceDelta.OPEN | IResourceDelta.DESCRIPTION)) != 0;
+		}
+
+		if ((flags & IResourceDelta.LOCAL_CHANGED) != 0) {
+			// A linked resource now points somewhere else.
+			return true;
+		}
+
+		if (kind == IResourceDelta.ADDED) {
+			return resource.isLinked();
+		}
+
+		// A removed resource no longer knows whether it was linked, ask the index instead.
+		return kind == IResourceDelta.REMOVED && linked.contains(resource.getFullPath());
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.runtime.IStatus;
+import org.steb.metrics.Metrics;
+
+/**
+ * A parsed client request: what to do and the files to do it with. A request may carry a client supplied id and a
+ * callback that is told the outcome once the request has been carried out.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class StebRequest {
+
+	public enum Type {
+		/**
+		 * Open each file in an editor.
+		 */
+		OPEN,
+		/**
+		 * Create a project for each directory.
+		 */
+		PROJECT,
+		/**
+		 * Create a project for every directory at or below the given directories that holds a .project file.
+		 */
+		NESTED_PROJECTS,
+		/**
+		 * Open a compare editor for two files.
+		 */
+		COMPARE
+	}
+
+	/**
+	 * Receives the outcome of a request.
+	 */
+	public interface Callback {
+		/**
+		 * Called once, on whichever thread finished the request.
+		 * 
+		 * @param request
+		 * @param status
+		 */
+		void completed(StebRequest request, IStatus status);
+	}
+
+	private final Type type;
+	private final List<File> files;
+	private final String id;
+	private final Callback callback;
+	private final long received = System.nanoTime();
+
+	public StebRequest(Type type, List<File> files, String id, Callback callback) {
+		this.type = type;
+		this.files = Collections.unmodifiableList(files);
+		this.id = id;
+		this.callback = callback;
+	}
+
+	public StebRequest(Type type, List<File> files) {
+		this(type, files, null, null);
+	}
+
+	public StebRequest(Type type, File file) {
+		this(type, Collections.singletonList(file));
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public List<File> getFiles() {
+		return files;
+	}
+
+	/**
+	 * @return the id the client gave this request, or null.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return microseconds since the request was parsed.
+	 */
+	public long getElapsedMicros() {
+		return (System.nanoTime() - received) / 1000;
+	}
+
+	/**
+	 * Report the outcome of this request to its callback, if any.
+	 * 
+	 * @param status
+	 */
+	public void complete(IStatus status) {
+		Metrics.getDefault().completed(received, status.getSeverity() >= IStatus.ERROR);
+
+		if (callback != null) {
+			callback.completed(this, status);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + files;
+	}
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IWorkbench;
+import org.eclipse.ui.PlatformUI;
+import org.steb.metrics.Metrics;
+
+/**
+ * Hands requests over to the UI thread without waiting on it.
+ * 
+ * Requests are put on a queue and at most one asyncExec is outstanding at any time. When it runs it drains
+ * everything that arrived in the meantime, opens the files of all open requests together and brings the workbench
+ * window to the front once. A busy UI thread (modal dialog, long build) therefore only delays requests, it never
+ * blocks the thread that dispatches them.
+ * 
+ * The queue is bounded: once {@link #MAX_QUEUED_REQUESTS} are waiting, further requests are completed with a
+ * {@link #BUSY} status straight away. A single UI tick runs at most {@link #MAX_REQUESTS_PER_TICK} of them and leaves
+ * the rest for the next one, so a script that floods steb cannot keep the UI thread from painting or taking input.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class UIDispatcher {
+
+	/**
+	 * Most requests waiting for the UI thread.
+	 */
+	public static final int MAX_QUEUED_REQUESTS = 256;
+
+	/**
+	 * Most requests run by one asyncExec.
+	 */
+	private static final int MAX_REQUESTS_PER_TICK = 32;
+
+	/**
+	 * Code of the status a request is completed with when too many requests are waiting.
+	 */
+	public static final int BUSY = 1;
+
+	private final ConcurrentLinkedQueue<StebRequest> queue = new ConcurrentLinkedQueue<StebRequest>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final AtomicInteger queued = new AtomicInteger();
+
+	/**
+	 * System.nanoTime() when the outstanding asyncExec was requested.
+	 */
+	private volatile long scheduledAt;
+
+	/**
+	 * Set once the plug-in is stopping, from then on requests are turned away instead of handled.
+	 */
+	private volatile boolean stopped;
+	private final ILog log;
+
+	private final Runnable drain = new Runnable() {
+
+		public void run() {
+			// Clear the flag first so requests arriving while we drain schedule another run.
+			scheduled.set(false);
+			Metrics.getDefault().record(Metrics.Phase.UI_WAIT, scheduledAt);
+
+			if (stopped) {
+				rejectQueued();
+				return;
+			}
+
+			List<StebRequest> requests = new ArrayList<StebRequest>();
+			StebRequest request;
+			while (requests.size() < MAX_REQUESTS_PER_TICK && (request = queue.poll()) != null) {
+				requests.add(request);
+			}
+			queued.addAndGet(-requests.size());
+
+			if (!requests.isEmpty()) {
+				process(requests);
+			}
+
+			// Leave the rest to the next tick, the UI thread gets to handle its own events in between.
+			if (!queue.isEmpty()) {
+				schedule();
+			}
+		}
+	};
+
+	public UIDispatcher(ILog log) {
+		this.log = log;
+	}
+
+	/**
+	 * Queue a request for the UI thread. Never blocks. If too many requests are waiting already the request is
+	 * completed with a {@link #BUSY} status instead.
+	 * 
+	 * @param request
+	 */
+	public void dispatch(StebRequest request) {
+		if (stopped) {
+			request.complete(createStoppedStatus());
+			return;
+		}
+
+		// Projects are created by jobs, which complete the request themselves.
+		if (request.getType() == StebRequest.Type.PROJECT || request.getType() == StebRequest.Type.NESTED_PROJECTS) {
+			Activator plugin = Activator.getDefault();
+			ProjectCreationScheduler scheduler = plugin == null ? null : plugin.getProjectScheduler();
+
+			// The plug-in stopped after the check above.
+			if (scheduler == null) {
+				request.complete(createStoppedStatus());
+				return;
+			}
+			scheduler.schedule(request);
+			return;
+		}
+
+		if (queued.incrementAndGet() > MAX_QUEUED_REQUESTS) {
+			queued.decrementAndGet();
+			Metrics.getDefault().rejected();
+			request.complete(createBusyStatus());
+			return;
+		}
+
+		Metrics.getDefault().queued();
+		queue.add(request);
+
+		// Stopped while we queued it, nobody may run the queue anymore.
+		if (stopped) {
+			rejectQueued();
+			return;
+		}
+		schedule();
+	}
+
+	/**
+	 * Turn away the requests still waiting and every request dispatched from now on, with an error status. Called
+	 * when the plug-in stops, before the state the requests would need is released.
+	 */
+	public void stop() {
+		stopped = true;
+		rejectQueued();
+	}
+
+	/**
+	 * @return true once {@link #stop()} has been called.
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	private void rejectQueued() {
+		StebRequest request;
+		while ((request = queue.poll()) != null) {
+			queued.decrementAndGet();
+			request.complete(createStoppedStatus());
+		}
+	}
+
+	private static IStatus createStoppedStatus() {
+		return new Status(IStatus.ERROR, Activator.PLUGIN_ID, "steb is stopping.");
+	}
+
+	/**
+	 * Make sure an asyncExec is outstanding to drain the queue.
+	 */
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			scheduledAt = System.nanoTime();
+			Display display = PlatformUI.getWorkbench().getDisplay();
+
+			if (display.isDisposed()) {
+				StebRequest dropped;
+				while ((dropped = queue.poll()) != null) {
+					queued.decrementAndGet();
+					dropped.complete(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Workbench is not available."));
+				}
+				return;
+			}
+			display.asyncExec(drain);
+		}
+	}
+
+	/**
+	 * @return number of requests waiting for the UI thread.
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * @return the status of a request turned away because too many are waiting.
+	 */
+	public static IStatus createBusyStatus() {
+		return new Status(IStatus.WARNING, Activator.PLUGIN_ID, BUSY, "Too many requests waiting, retry.", null);
+	}
+
+	/**
+	 * @param status
+	 * @return true if status is one from {@link #createBusyStatus()}.
+	 */
+	public static boolean isBusy(IStatus status) {
+		return status.getCode() == BUSY && Activator.PLUGIN_ID.equals(status.getPlugin());
+	}
+
+	/**
+	 * Run all requests that arrived in one UI tick, in order. Requests to open files are merged so that each file is
+	 * opened once and the window is activated once. Each request is completed with the outcome of its own files.
+	 * 
+	 * @param requests
+	 */
+	private void process(List<StebRequest> requests) {
+		IWorkbench workbench = PlatformUI.getWorkbench();
+		Set<File> opened = new LinkedHashSet<File>();
+
+		for (StebRequest request : requests) {
+			IStatus status = Status.OK_STATUS;
+
+			switch (request.getType()) {
+			case OPEN:
+				for (File file : request.getFiles()) {
+					if (!opened.add(file)) {
+						continue;
+					}
+
+					try {
+						EclipseEditorHelper.openEclipseEditorForFile(file, true, workbench, false);
+					} catch (Exception e) {
+						status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to open editor for file: " + file.getAbsolutePath(), e);
+						log.log(status);
+					}
+				}
+				break;
+			case COMPARE:
+				File left = request.getFiles().get(0);
+				File right = request.getFiles().get(1);
+				try {
+					EclipseEditorHelper.createEclipseCompareEditorForFiles(left, right, workbench);
+				} catch (Exception e) {
+					status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to open compare editor for files: " + left.getAbsolutePath() + ", " + right.getAbsolutePath(), e);
+					log.log(status);
+				}
+				break;
+			}
+
+			request.complete(status);
+		}
+
+		if (!opened.isEmpty()) {
+			EclipseEditorHelper.activateWorkbenchWindow(workbench);
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A file shared by every running steb, mapping each workspace to the address its listener can be reached at, so that
+ * clients find the right Eclipse with one read of one file instead of guessing ports.
+ * 
+ * The file holds {@link #SLOTS} fixed-width slots, one line each. Every instance claims a free slot by locking its
+ * byte range, which the operating system releases if the instance dies, and writes into it through a memory mapping.
+ * A published slot reads
+ * 
+ * <pre>
+ * heartbeat \t pid \t port \t unix-socket-or-- \t workspace-root \t padding \n
+ * </pre>
+ * 
+ * where heartbeat is the time in seconds since the epoch, refreshed every {@link #HEARTBEAT_SECONDS}. Clients should
+ * skip slots whose heartbeat is blank or older than {@link #STALE_SECONDS}. An unused slot is blank.
+ * 
+ * Clients run commands based on what the registry says, so it is only used if it is a regular file of the current
+ * user, in a directory nobody else can write to.
+ * 
+ * @author kgilmer
+ * 
+ */
+class WorkspaceRegistry {
+
+	static final int SLOTS = 32;
+	static final int SLOT_SIZE = 512;
+	static final int HEARTBEAT_SECONDS = 10;
+	static final int STALE_SECONDS = 30;
+
+	/**
+	 * Width of the heartbeat field, enough for seconds since the epoch until the year 2286.
+	 */
+	private static final int HEARTBEAT_WIDTH = 10;
+
+	private static final byte[] BLANK = blankSlot();
+
+	private final FileChannel channel;
+	private final MappedByteBuffer map;
+	private final FileLock lock;
+	private final int offset;
+
+	private WorkspaceRegistry(FileChannel channel, MappedByteBuffer map, FileLock lock) {
+		this.channel = channel;
+		this.map = map;
+		this.lock = lock;
+		this.offset = (int) lock.position();
+	}
+
+	/**
+	 * Map the registry, creating it if needed, and claim a slot in it.
+	 * 
+	 * @param path
+	 * @return the registry.
+	 * @throws IOException
+	 *             if the file cannot be mapped, belongs to someone else or every slot is taken.
+	 */
+	static WorkspaceRegistry open(Path path) throws IOException {
+		// Never follow a link someone else may have planted to one of our files.
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+			LinkOption.NOFOLLOW_LINKS);
+		try {
+			PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			if (!attributes.isRegularFile() || !attributes.owner().equals(getCurrentUser())) {
+				throw new IOException(path + " is not a file of the current user.");
+			}
+
+			MappedByteBuffer map;
+
+			// The byte after the slots guards creating them, slot locks are held for as long as steb runs.
+			FileLock init = channel.lock(SLOTS * SLOT_SIZE, 1, false);
+			try {
+				long size = channel.size();
+				map = channel.map(FileChannel.MapMode.READ_WRITE, 0, SLOTS * SLOT_SIZE);
+
+				for (int slot = (int) ((size + SLOT_SIZE - 1) / SLOT_SIZE); slot < SLOTS; ++slot) {
+					put(map, slot * SLOT_SIZE, BLANK);
+				}
+			} finally {
+				init.release();
+			}
+
+			for (int slot = 0; slot < SLOTS; ++slot) {
+				FileLock lock;
+				try {
+					lock = channel.tryLock((long) slot * SLOT_SIZE, SLOT_SIZE, false);
+				} catch (OverlappingFileLockException e) {
+					// Held by this JVM.
+					continue;
+				}
+
+				if (lock != null) {
+					WorkspaceRegistry registry = new WorkspaceRegistry(channel, map, lock);
+					registry.clear();
+					return registry;
+				}
+			}
+
+			throw new IOException("All " + SLOTS + " slots of " + path + " are in use.");
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		} catch (UnsupportedOperationException e) {
+			channel.close();
+			throw new IOException("Ownership of " + path + " cannot be checked.");
+		}
+	}
+
+	/**
+	 * @return the user Eclipse runs as.
+	 * @throws IOException
+	 */
+	static UserPrincipal getCurrentUser() throws IOException {
+		return FileSystems.getDefault().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+	}
+
+	/**
+	 * Publish where the listener of a workspace can be reached.
+	 * 
+	 * @param port
+	 * @param unixSocket
+	 *            may be null.
+	 * @param workspaceRoot
+	 * @throws IOException
+	 *             if the entry does not fit in a slot.
+	 */
+	synchronized void publish(int port, Path unixSocket, String workspaceRoot) throws IOException {
+		String entry = String.format(Locale.ROOT, "\t%10d\t%5d\t%s\t%s\t", ProcessHandle.current().pid(), port, unixSocket == null ? "-" : unixSocket.toString(),
+			workspaceRoot);
+		byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+
+		if (HEARTBEAT_WIDTH + bytes.length + 1 > SLOT_SIZE) {
+			throw new IOException("Workspace path is too long for the registry: " + workspaceRoot);
+		}
+
+		// Readers skip a slot without heartbeat, so blank it while the rest changes.
+		clear();
+		put(HEARTBEAT_WIDTH, bytes);
+		heartbeat();
+	}
+
+	/**
+	 * Tell clients the listener is still alive.
+	 */
+	synchronized void heartbeat() {
+		put(0, String.format(Locale.ROOT, "%10d", System.currentTimeMillis() / 1000).getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Withdraw the entry, the slot stays claimed.
+	 */
+	synchronized void clear() {
+		put(0, BLANK);
+	}
+
+	/**
+	 * Withdraw the entry and give up the slot.
+	 */
+	synchronized void close() {
+		clear();
+		map.force();
+
+		try {
+			lock.release();
+			channel.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private void put(int position, byte[] bytes) {
+		put(map, offset + position, bytes);
+	}
+
+	private static void put(MappedByteBuffer map, int position, byte[] bytes) {
+		for (int i = 0; i < bytes.length; ++i) {
+			map.put(position + i, bytes[i]);
+		}
+	}
+
+	/**
+	 * @return an unused slot.
+	 */
+	private static byte[] blankSlot() {
+		byte[] blank = new byte[SLOT_SIZE];
+		Arrays.fill(blank, (byte) ' ');
+		blank[SLOT_SIZE - 1] = '\n';
+		return blank;
+	}
+}
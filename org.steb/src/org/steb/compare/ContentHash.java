@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.compare;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.steb.editors.MappedFile;
+
+/**
+ * Content hashes for deciding whether files differ without running a text compare over them.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class ContentHash {
+
+	private static final String ALGORITHM = "SHA-1";
+
+	/**
+	 * Files smaller than this are read rather than mapped, mapping costs more than reading them.
+	 */
+	private static final long MAP_THRESHOLD = 256 * 1024;
+
+	private ContentHash() {
+	}
+
+	/**
+	 * @param left
+	 * @param right
+	 * @return true if both files have the same size and content.
+	 * @throws IOException
+	 */
+	public static boolean isIdentical(File left, File right) throws IOException {
+		if (left.length() != right.length()) {
+			return false;
+		}
+
+		if (left.getCanonicalFile().equals(right.getCanonicalFile())) {
+			return true;
+		}
+
+		// Comparing the bytes stops at the first difference, hashing would read both files in full.
+		return Files.mismatch(left.toPath(), right.toPath()) < 0;
+	}
+
+	/**
+	 * Hash a file. Large files are hashed through a memory mapping, so they are never copied to the heap.
+	 * 
+	 * @param file
+	 * @return the hash of the contents of file.
+	 * @throws IOException
+	 */
+	public static byte[] digest(File file) throws IOException {
+		if (file.length() < MAP_THRESHOLD) {
+			return newDigest().digest(Files.readAllBytes(file.toPath()));
+		}
+
+		MappedFile mapped = MappedFile.open(file);
+		try {
+			return digest(mapped);
+		} finally {
+			mapped.close();
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return the hash of the contents of an already mapped file.
+	 */
+	public static byte[] digest(MappedFile file) {
+		MessageDigest digest = newDigest();
+		file.update(digest);
+		return digest.digest();
+	}
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-1.
+			throw new IllegalStateException(e);
+		}
+	}
+}
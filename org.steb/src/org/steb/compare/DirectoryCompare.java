@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.compare;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.compare.IStreamContentAccessor;
+import org.eclipse.compare.ITypedElement;
+import org.eclipse.compare.structuremergeviewer.DiffNode;
+import org.eclipse.compare.structuremergeviewer.Differencer;
+import org.eclipse.compare.structuremergeviewer.IDiffContainer;
+import org.eclipse.compare.structuremergeviewer.IDiffElement;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.swt.graphics.Image;
+
+/**
+ * Compares two directory trees.
+ * 
+ * Both trees are hashed in parallel on a fork-join pool. The result is a tree of {@link DiffNode}s that is built as
+ * the user expands it: subtrees with equal hashes never appear, and the contents of changed files are only read
+ * when the compare editor shows them. Entries that are not regular files, or could not be read, are shown as a
+ * description of what they are.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class DirectoryCompare {
+
+	/**
+	 * How often hashing progress is reported to the monitor.
+	 */
+	private static final long PROGRESS_INTERVAL_MS = 200;
+
+	private DirectoryCompare() {
+	}
+
+	/**
+	 * @param left
+	 * @param right
+	 * @param monitor
+	 * @return the root of the differences, or null if both trees are identical.
+	 * @throws IOException
+	 *             if a file could not be read.
+	 * @throws InterruptedException
+	 *             if the monitor was canceled.
+	 */
+	public static DiffNode compare(File left, File right, IProgressMonitor monitor) throws IOException, InterruptedException {
+		ForkJoinPool pool = new ForkJoinPool();
+		HashedTree.Progress progress = new HashedTree.Progress(monitor);
+
+		monitor.beginTask("Comparing " + left.getName() + " with " + right.getName(), IProgressMonitor.UNKNOWN);
+		try {
+			ForkJoinTask<HashedTree> leftTask = pool.submit(new HashedTree.HashTask(left, progress));
+			ForkJoinTask<HashedTree> rightTask = pool.submit(new HashedTree.HashTask(right, progress));
+
+			// The monitor is only touched from this thread, the tasks just count the directories they listed.
+			int reported = 0;
+			while (!pool.awaitQuiescence(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+				reported = report(progress, monitor, reported);
+			}
+			report(progress, monitor, reported);
+
+			HashedTree leftTree = get(leftTask);
+			HashedTree rightTree = get(rightTask);
+
+			if (leftTree.sameAs(rightTree)) {
+				return null;
+			}
+
+			return new TreeDiffNode(null, Differencer.CHANGE, leftTree, rightTree);
+		} finally {
+			pool.shutdownNow();
+			monitor.done();
+		}
+	}
+
+	/**
+	 * @param progress
+	 * @param monitor
+	 * @param reported
+	 *            directories reported to monitor so far.
+	 * @return directories reported to monitor now.
+	 */
+	private static int report(HashedTree.Progress progress, IProgressMonitor monitor, int reported) {
+		int directories = progress.getDirectories();
+		File current = progress.getCurrent();
+
+		if (directories > reported) {
+			monitor.worked(directories - reported);
+		}
+		if (current != null) {
+			monitor.subTask(directories + " directories: " + current.getPath());
+		}
+
+		return directories;
+	}
+
+	private static HashedTree get(ForkJoinTask<HashedTree> task) throws IOException, InterruptedException {
+		try {
+			return task.get();
+		} catch (CancellationException e) {
+			throw new InterruptedException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			}
+			if (cause instanceof CancellationException) {
+				throw new InterruptedException();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * A node whose children are only created when they are first asked for.
+	 */
+	private static class TreeDiffNode extends DiffNode {
+
+		private final HashedTree left;
+		private final HashedTree right;
+		private boolean expanded;
+
+		TreeDiffNode(IDiffContainer parent, int kind, HashedTree left, HashedTree right) {
+			super(parent, kind, null, element(left), element(right));
+			this.left = left;
+			this.right = right;
+		}
+
+		private static ITypedElement element(HashedTree tree) {
+			if (tree == null) {
+				return null;
+			}
+
+			if (tree.directory) {
+				return new FolderElement(tree.file.getName());
+			}
+
+			return tree.description != null ? new DescriptionElement(tree.file.getName(), tree.description) : new MappedInput(tree.file);
+		}
+
+		@Override
+		public boolean hasChildren() {
+			if (!expanded) {
+				return (left != null && !left.children.isEmpty()) || (right != null && !right.children.isEmpty());
+			}
+
+			return super.hasChildren();
+		}
+
+		@Override
+		public IDiffElement[] getChildren() {
+			if (!expanded) {
+				expanded = true;
+				expand();
+			}
+
+			return super.getChildren();
+		}
+
+		private void expand() {
+			SortedSet<String> names = new TreeSet<String>();
+			if (left != null) {
+				names.addAll(left.children.keySet());
+			}
+			if (right != null) {
+				names.addAll(right.children.keySet());
+			}
+
+			for (String name : names) {
+				HashedTree l = left == null ? null : left.children.get(name);
+				HashedTree r = right == null ? null : right.children.get(name);
+
+				if (l == null) {
+					new TreeDiffNode(this, Differencer.ADDITION, null, r);
+				} else if (r == null) {
+					new TreeDiffNode(this, Differencer.DELETION, l, null);
+				} else if (l.directory != r.directory) {
+					// A file replaced by a directory, or the other way around.
+					new TreeDiffNode(this, Differencer.DELETION, l, null);
+					new TreeDiffNode(this, Differencer.ADDITION, null, r);
+				} else if (!l.sameAs(r)) {
+					new TreeDiffNode(this, Differencer.CHANGE, l, r);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Shows what an entry is instead of its content.
+	 */
+	private static class DescriptionElement implements ITypedElement, IStreamContentAccessor {
+
+		private final String name;
+		private final String description;
+
+		DescriptionElement(String name, String description) {
+			this.name = name;
+			this.description = description;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Image getImage() {
+			return null;
+		}
+
+		public String getType() {
+			return ITypedElement.TEXT_TYPE;
+		}
+
+		public InputStream getContents() {
+			return new ByteArrayInputStream((description + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static class FolderElement implements ITypedElement {
+
+		private final String name;
+
+		FolderElement(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Image getImage() {
+			return null;
+		}
+
+		public String getType() {
+			return ITypedElement.FOLDER_TYPE;
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.compare;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * A file or directory together with the hash of its content. The hash of a directory covers the names, kinds and
+ * hashes of everything below it, so two directories with the same hash hold the same tree.
+ * 
+ * Only regular files are read. Other entries such as dangling links, pipes or devices are compared by what they are,
+ * and entries that cannot be read are kept in the tree, marked as such, so that one of them does not spoil the
+ * compare of everything else.
+ * 
+ * @author kgilmer
+ * 
+ */
+class HashedTree {
+
+	/**
+	 * Kinds of entries, as hashed into their parent.
+	 */
+	private static final byte FILE = 0;
+	private static final byte DIRECTORY = 1;
+	private static final byte SPECIAL = 2;
+
+	final File file;
+	final boolean directory;
+
+	/**
+	 * Null if the entry or something below it could not be read, such entries are never the same as any other.
+	 */
+	final byte[] hash;
+
+	/**
+	 * What is shown instead of the content of an entry that is not a regular file or directory, or could not be read.
+	 * Null for regular files and directories.
+	 */
+	final String description;
+
+	/**
+	 * Children by name, empty for files.
+	 */
+	final SortedMap<String, HashedTree> children;
+
+	private HashedTree(File file, boolean directory, byte[] hash, String description, SortedMap<String, HashedTree> children) {
+		this.file = file;
+		this.directory = directory;
+		this.hash = hash;
+		this.description = description;
+		this.children = children;
+	}
+
+	/**
+	 * @param other
+	 * @return true if other is the same kind of entry with the same content.
+	 */
+	boolean sameAs(HashedTree other) {
+		return directory == other.directory && (description == null) == (other.description == null) && hash != null && other.hash != null
+			&& MessageDigest.isEqual(hash, other.hash);
+	}
+
+	private static HashedTree leaf(File file, byte[] hash, String description) {
+		return new HashedTree(file, false, hash, description, Collections.<String, HashedTree> emptySortedMap());
+	}
+
+	/**
+	 * @param file
+	 * @param e
+	 * @return an entry that could not be read.
+	 */
+	private static HashedTree unreadable(File file, IOException e) {
+		String reason = e.getMessage();
+		// These carry the path as message, and a reason only sometimes.
+		if (e instanceof FileSystemException) {
+			reason = ((FileSystemException) e).getReason() != null ? ((FileSystemException) e).getReason() : e.getClass().getSimpleName();
+		}
+
+		return leaf(file, null, "Unable to read " + file.getAbsolutePath() + ": " + reason);
+	}
+
+	/**
+	 * @param path
+	 *            neither a regular file nor a directory.
+	 * @return what the entry is, eg "Symbolic link to ../lib".
+	 * @throws IOException
+	 */
+	private static String describe(Path path) throws IOException {
+		if (Files.isSymbolicLink(path)) {
+			return "Symbolic link to " + Files.readSymbolicLink(path);
+		}
+
+		try {
+			int mode = ((Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS)).intValue();
+			switch (mode & 0170000) {
+			case 0010000:
+				return "Named pipe";
+			case 0140000:
+				return "Socket";
+			case 0020000:
+				return "Character device";
+			case 0060000:
+				return "Block device";
+			}
+		} catch (UnsupportedOperationException e) {
+			// Not a Unix file system.
+		} catch (IllegalArgumentException e) {
+			// No such attribute.
+		}
+
+		return "Special file";
+	}
+
+	/**
+	 * Progress shared by the tasks hashing a compare. Tasks run on pool threads and only count here, whoever waits for
+	 * them reports the count to the monitor on its own thread.
+	 */
+	static class Progress {
+
+		private final IProgressMonitor monitor;
+		private final AtomicInteger directories = new AtomicInteger();
+		private volatile File current;
+
+		Progress(IProgressMonitor monitor) {
+			this.monitor = monitor;
+		}
+
+		/**
+		 * @return number of directories listed so far.
+		 */
+		int getDirectories() {
+			return directories.get();
+		}
+
+		/**
+		 * @return the directory listed last, or null if none was yet.
+		 */
+		File getCurrent() {
+			return current;
+		}
+
+		private void listed(File directory) {
+			current = directory;
+			directories.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Hashes a tree on a fork-join pool, every subdirectory and file is a task of its own.
+	 */
+	static class HashTask extends RecursiveTask<HashedTree> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final File file;
+		private final Progress progress;
+		private final boolean root;
+
+		HashTask(File file, Progress progress) {
+			this(file, progress, true);
+		}
+
+		private HashTask(File file, Progress progress, boolean root) {
+			this.file = file;
+			this.progress = progress;
+			this.root = root;
+		}
+
+		@Override
+		protected HashedTree compute() {
+			if (progress.monitor.isCanceled()) {
+				throw new CancellationException();
+			}
+
+			Path path = file.toPath();
+			try {
+				if (Files.isRegularFile(path)) {
+					return leaf(file, ContentHash.digest(file), null);
+				}
+
+				// Links to directories below the root may form cycles, compare them by their target instead.
+				if (!Files.isDirectory(path) || (!root && Files.isSymbolicLink(path))) {
+					// Reading a pipe or device could block forever, a dangling link cannot be read at all.
+					String description = describe(path);
+					MessageDigest digest = ContentHash.newDigest();
+					return leaf(file, digest.digest(description.getBytes(StandardCharsets.UTF_8)), description);
+				}
+			} catch (IOException e) {
+				return unreadable(file, e);
+			}
+
+			List<HashTask> tasks = new ArrayList<HashTask>();
+			File[] entries = file.listFiles();
+			if (entries == null) {
+				return unreadable(file, new IOException("Unable to list directory."));
+			}
+
+			progress.listed(file);
+
+			for (File entry : entries) {
+				tasks.add(new HashTask(entry, progress, false));
+			}
+			invokeAll(tasks);
+
+			SortedMap<String, HashedTree> children = new TreeMap<String, HashedTree>();
+			for (HashTask task : tasks) {
+				HashedTree child = task.join();
+				children.put(child.file.getName(), child);
+			}
+
+			MessageDigest digest = ContentHash.newDigest();
+			boolean complete = true;
+			for (HashedTree child : children.values()) {
+				if (child.hash == null) {
+					complete = false;
+					break;
+				}
+				digest.update(child.file.getName().getBytes(StandardCharsets.UTF_8));
+				digest.update(child.directory ? DIRECTORY : child.description != null ? SPECIAL : FILE);
+				digest.update(child.hash);
+			}
+
+			return new HashedTree(file, true, complete ? digest.digest() : null, null, children);
+		}
+	}
+}
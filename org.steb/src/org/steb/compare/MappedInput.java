@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.compare;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.eclipse.compare.IStreamContentAccessor;
+import org.eclipse.compare.ITypedElement;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.swt.graphics.Image;
+import org.steb.Activator;
+import org.steb.editors.MappedFile;
+
+/**
+ * A compare input whose contents are served from a memory mapping of the file. Every call to
+ * {@link #getContents()} reads the same mapped pages instead of opening and reading the file again. Inputs created
+ * for a file are only mapped when their contents are first asked for.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class MappedInput implements ITypedElement, IStreamContentAccessor {
+
+	private final String name;
+	private final File file;
+	private MappedFile contents;
+
+	/**
+	 * @param name
+	 * @param contents
+	 *            may already be closed.
+	 */
+	public MappedInput(String name, MappedFile contents) {
+		this.name = name;
+		this.file = null;
+		this.contents = contents;
+	}
+
+	/**
+	 * @param file
+	 *            mapped the first time {@link #getContents()} is called.
+	 */
+	public MappedInput(File file) {
+		this.name = file.getName();
+		this.file = file;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Image getImage() {
+		return null;
+	}
+
+	public String getType() {
+		if (name.contains(".")) {
+			return name.substring(name.lastIndexOf('.') + 1);
+		}
+
+		// Try text compare.
+		return ITypedElement.TEXT_TYPE;
+	}
+
+	public synchronized InputStream getContents() throws CoreException {
+		if (contents == null) {
+			try {
+				contents = MappedFile.open(file);
+			} catch (IOException e) {
+				throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Unable to read file: " + file.getAbsolutePath(), e));
+			}
+			// The mapping outlives the file.
+			contents.close();
+		}
+
+		return contents.openStream();
+	}
+}
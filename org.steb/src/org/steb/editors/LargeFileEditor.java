@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.editors;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.resource.JFaceResources;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.widgets.Canvas;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.ui.IEditorInput;
+import org.eclipse.ui.IEditorSite;
+import org.eclipse.ui.IPathEditorInput;
+import org.eclipse.ui.IURIEditorInput;
+import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.part.EditorPart;
+import org.steb.Activator;
+
+/**
+ * A read-only viewer for files too large to load into a text editor document. The file is memory-mapped, its lines
+ * are indexed by a background job and only the lines in the visible window are ever decoded and drawn.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class LargeFileEditor extends EditorPart {
+
+	public static final String ID = "org.steb.editors.LargeFileEditor";
+
+	/**
+	 * Longest line that is shown, longer ones are wrapped, see {@link LineIndex}.
+	 */
+	private static final int MAX_LINE_BYTES = LineIndex.MAX_LINE_BYTES;
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private MappedFile file;
+	private LineIndex index;
+	private Job indexJob;
+	private Canvas canvas;
+	private final byte[] lineBuffer = new byte[MAX_LINE_BYTES];
+	private int topLine;
+	private int leftPixel;
+
+	/**
+	 * Set once reading the mapping failed, the file was truncated or replaced while it was open.
+	 */
+	private volatile boolean changed;
+
+	@Override
+	public void init(IEditorSite site, IEditorInput input) throws PartInitException {
+		File location = getFile(input);
+		if (location == null) {
+			throw new PartInitException("Large file viewer can only open local files.");
+		}
+
+		try {
+			file = MappedFile.open(location);
+		} catch (IOException e) {
+			throw new PartInitException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Unable to map file: " + location.getAbsolutePath(), e));
+		}
+
+		setSite(site);
+		setInput(input);
+		setPartName(input.getName());
+		setTitleToolTip(location.getAbsolutePath());
+	}
+
+	/**
+	 * @param input
+	 * @return the local file behind input, or null.
+	 */
+	private static File getFile(IEditorInput input) {
+		if (input instanceof IPathEditorInput) {
+			return ((IPathEditorInput) input).getPath().toFile();
+		}
+
+		if (input instanceof IURIEditorInput) {
+			URI uri = ((IURIEditorInput) input).getURI();
+
+			if (uri != null && "file".equals(uri.getScheme())) {
+				return new File(uri);
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public void createPartControl(Composite parent) {
+		canvas = new Canvas(parent, SWT.V_SCROLL | SWT.H_SCROLL | SWT.DOUBLE_BUFFERED);
+		canvas.setFont(JFaceResources.getTextFont());
+		canvas.setBackground(canvas.getDisplay().getSystemColor(SWT.COLOR_LIST_BACKGROUND));
+
+		canvas.addListener(SWT.Paint, new Listener() {
+
+			public void handleEvent(Event event) {
+				paint(event.gc);
+			}
+		});
+		canvas.addListener(SWT.Resize, new Listener() {
+
+			public void handleEvent(Event event) {
+				updateScrollBars();
+			}
+		});
+		canvas.addListener(SWT.KeyDown, new Listener() {
+
+			public void handleEvent(Event event) {
+				int page = getVisibleLines();
+
+				switch (event.keyCode) {
+				case SWT.ARROW_UP:
+					scrollTo(topLine - 1);
+					break;
+				case SWT.ARROW_DOWN:
+					scrollTo(topLine + 1);
+					break;
+				case SWT.PAGE_UP:
+					scrollTo(topLine - page);
+					break;
+				case SWT.PAGE_DOWN:
+					scrollTo(topLine + page);
+					break;
+				case SWT.HOME:
+					scrollTo(0);
+					break;
+				case SWT.END:
+					scrollTo(index.getLineCount());
+					break;
+				}
+			}
+		});
+		canvas.getVerticalBar().addListener(SWT.Selection, new Listener() {
+
+			public void handleEvent(Event event) {
+				topLine = canvas.getVerticalBar().getSelection();
+				canvas.redraw();
+			}
+		});
+		canvas.getHorizontalBar().addListener(SWT.Selection, new Listener() {
+
+			public void handleEvent(Event event) {
+				leftPixel = canvas.getHorizontalBar().getSelection();
+				canvas.redraw();
+			}
+		});
+
+		index = new LineIndex(file);
+		indexJob = new Job("Indexing " + getPartName()) {
+
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				Runnable progress = new Runnable() {
+
+					public void run() {
+						if (canvas.isDisposed()) {
+							return;
+						}
+
+						canvas.getDisplay().asyncExec(new Runnable() {
+
+							public void run() {
+								if (!canvas.isDisposed()) {
+									if (index.isTruncated()) {
+										setContentDescription("Only the first " + index.getLineCount() + " lines are shown.");
+									}
+									updateScrollBars();
+									canvas.redraw();
+								}
+							}
+						});
+					}
+				};
+
+				try {
+					index.build(monitor, progress);
+				} catch (InternalError e) {
+					// The JVM reports a fault on a mapped page this way, the file got shorter under us.
+					changed = true;
+					progress.run();
+					return Status.CANCEL_STATUS;
+				}
+
+				return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+			}
+		};
+		indexJob.setSystem(true);
+		indexJob.setPriority(Job.LONG);
+		indexJob.schedule();
+	}
+
+	private int getLineHeight() {
+		GC gc = new GC(canvas);
+		try {
+			return gc.getFontMetrics().getHeight();
+		} finally {
+			gc.dispose();
+		}
+	}
+
+	private int getCharWidth() {
+		GC gc = new GC(canvas);
+		try {
+			return (int) Math.ceil(gc.getFontMetrics().getAverageCharacterWidth());
+		} finally {
+			gc.dispose();
+		}
+	}
+
+	private int getVisibleLines() {
+		return Math.max(1, canvas.getClientArea().height / getLineHeight());
+	}
+
+	private void scrollTo(int line) {
+		int max = Math.max(0, index.getLineCount() - getVisibleLines());
+		topLine = Math.max(0, Math.min(line, max));
+		canvas.getVerticalBar().setSelection(topLine);
+		canvas.redraw();
+	}
+
+	private void updateScrollBars() {
+		Rectangle area = canvas.getClientArea();
+		int visible = getVisibleLines();
+
+		canvas.getVerticalBar().setValues(topLine, 0, Math.max(index.getLineCount(), 1), Math.min(visible, Math.max(index.getLineCount(), 1)), 1, visible);
+		canvas.getHorizontalBar().setValues(leftPixel, 0, MAX_LINE_BYTES * getCharWidth(), Math.max(1, area.width), getCharWidth(), Math.max(1, area.width));
+	}
+
+	/**
+	 * Draw the lines in the visible window only.
+	 * 
+	 * @param gc
+	 */
+	private void paint(GC gc) {
+		Rectangle area = canvas.getClientArea();
+		int lineHeight = gc.getFontMetrics().getHeight();
+		int count = index.getLineCount();
+		int last = Math.min(count, topLine + area.height / lineHeight + 1);
+
+		gc.fillRectangle(area);
+
+		if (changed) {
+			paintChanged(gc);
+			return;
+		}
+
+		if (topLine >= last) {
+			return;
+		}
+
+		try {
+			long offset = index.getOffset(topLine);
+			for (int line = topLine, y = 0; line < last; ++line, y += lineHeight) {
+				long next = index.nextLine(offset);
+				// Wrapped lines end where the index cut them, not at the line break.
+				int length = (int) Math.min(file.readLine(offset, lineBuffer), next - offset);
+				String text = new String(lineBuffer, 0, length, CHARSET).replace("\t", "    ");
+				gc.drawString(text, -leftPixel, y, true);
+
+				offset = next;
+			}
+		} catch (InternalError e) {
+			// The JVM reports a fault on a mapped page this way, the file got shorter under us.
+			changed = true;
+			gc.fillRectangle(area);
+			paintChanged(gc);
+		}
+	}
+
+	private void paintChanged(GC gc) {
+		gc.drawString("The file was changed on disk while it was open, reopen it to view it.", 0, 0, true);
+	}
+
+	@Override
+	public void setFocus() {
+		canvas.setFocus();
+	}
+
+	@Override
+	public void dispose() {
+		if (indexJob != null) {
+			indexJob.cancel();
+		}
+		file.close();
+		super.dispose();
+	}
+
+	@Override
+	public void doSave(IProgressMonitor monitor) {
+	}
+
+	@Override
+	public void doSaveAs() {
+	}
+
+	@Override
+	public boolean isDirty() {
+		return false;
+	}
+
+	@Override
+	public boolean isSaveAsAllowed() {
+		return false;
+	}
+}
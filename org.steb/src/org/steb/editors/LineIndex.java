@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.editors;
+
+import java.util.Arrays;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * A sparse index of line start offsets in a {@link MappedFile}. Only the offset of every {@link #STRIDE}th line is
+ * stored, so even files with hundreds of millions of lines index in a few megabytes; the start of any other line is
+ * found by scanning forward from the nearest stored offset.
+ * 
+ * Lines longer than {@link #MAX_LINE_BYTES} are wrapped, every {@link #MAX_LINE_BYTES} of them is a line of its own,
+ * cut before a UTF-8 character that would not fit. Finding a line therefore never scans more than {@link #STRIDE}
+ * times that many bytes, however long the lines of the file are. Lines are numbered by int, only the first
+ * {@link #MAX_LINES} of a file are indexed.
+ * 
+ * The index is built by a single thread with {@link #build(IProgressMonitor, Runnable)} while any number of threads
+ * read the part that is already indexed.
+ * 
+ * @author kgilmer
+ * 
+ */
+class LineIndex {
+
+	/**
+	 * Number of lines between stored offsets.
+	 */
+	static final int STRIDE = 64;
+
+	/**
+	 * Longest line, longer ones are wrapped.
+	 */
+	static final int MAX_LINE_BYTES = 4096;
+
+	/**
+	 * Most lines indexed, leaving room for a window of lines after the last one without overflowing an int.
+	 */
+	static final int MAX_LINES = Integer.MAX_VALUE - 1024 * 1024;
+
+	/**
+	 * Bytes scanned between progress reports.
+	 */
+	private static final long PROGRESS_INTERVAL = 16 * 1024 * 1024;
+
+	private final MappedFile file;
+	private volatile long[] checkpoints = new long[1024];
+	private volatile int lineCount;
+	private volatile boolean complete;
+	private volatile boolean truncated;
+
+	LineIndex(MappedFile file) {
+		this.file = file;
+	}
+
+	/**
+	 * Scan the whole file.
+	 * 
+	 * @param monitor
+	 * @param progress
+	 *            run every few megabytes and at the end, so viewers can show the lines indexed so far.
+	 */
+	void build(IProgressMonitor monitor, Runnable progress) {
+		long length = file.length();
+		long[] offsets = checkpoints;
+		int lines = 0;
+		long nextProgress = PROGRESS_INTERVAL;
+
+		monitor.beginTask("Indexing lines", (int) (length / PROGRESS_INTERVAL) + 1);
+		// A last line without terminator is still a line.
+		for (long p = 0; p < length;) {
+			if (lines == MAX_LINES) {
+				truncated = true;
+				break;
+			}
+
+			p = nextLine(p);
+			lines++;
+
+			if (lines % STRIDE == 0) {
+				int slot = lines / STRIDE;
+				if (slot == offsets.length) {
+					offsets = Arrays.copyOf(offsets, offsets.length * 2);
+				}
+				offsets[slot] = p;
+				checkpoints = offsets;
+			}
+
+			if (p >= nextProgress) {
+				nextProgress += PROGRESS_INTERVAL;
+				lineCount = lines;
+				monitor.worked(1);
+				progress.run();
+
+				if (monitor.isCanceled()) {
+					monitor.done();
+					return;
+				}
+			}
+		}
+
+		lineCount = lines;
+		complete = true;
+		monitor.done();
+		progress.run();
+	}
+
+	/**
+	 * @return number of lines indexed so far.
+	 */
+	int getLineCount() {
+		return lineCount;
+	}
+
+	boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @return true if the file has more than {@link #MAX_LINES} lines, and only those were indexed.
+	 */
+	boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * @param line
+	 *            less than {@link #getLineCount()}.
+	 * @return offset of the first byte of line.
+	 */
+	long getOffset(int line) {
+		long p = checkpoints[line / STRIDE];
+
+		for (int skip = line % STRIDE; skip > 0; --skip) {
+			p = nextLine(p);
+		}
+
+		return p;
+	}
+
+	/**
+	 * @param start
+	 *            offset of the first byte of a line.
+	 * @return offset of the first byte of the line after it, or the file length. At most {@link #MAX_LINE_BYTES} + 1
+	 *         bytes are read.
+	 */
+	long nextLine(long start) {
+		long end = Math.min(file.length(), start + MAX_LINE_BYTES);
+
+		for (long p = start; p < end; ++p) {
+			if (file.get(p) == '\n') {
+				return p + 1;
+			}
+		}
+
+		// Wrap before a UTF-8 character rather than inside it, a character is at most 4 bytes long.
+		if (end < file.length()) {
+			long wrap = end;
+			while (wrap > end - 3 && (file.get(wrap) & 0xc0) == 0x80) {
+				wrap--;
+			}
+			if ((file.get(wrap) & 0xc0) != 0x80) {
+				end = wrap;
+			}
+		}
+
+		// A line break right after a full line belongs to it, rather than starting an empty line.
+		if (end < file.length() && file.get(end) == '\n') {
+			return end + 1;
+		}
+		return end;
+	}
+}
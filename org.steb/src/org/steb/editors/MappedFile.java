@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.editors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * A read-only, memory-mapped view of a file of any size. Files larger than a single MappedByteBuffer can address are
+ * mapped as a series of regions.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class MappedFile {
+
+	private static final int REGION_SHIFT = 30;
+	private static final long REGION_SIZE = 1L << REGION_SHIFT;
+
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer[] regions;
+	private final long length;
+
+	private MappedFile(RandomAccessFile raf, MappedByteBuffer[] regions, long length) {
+		this.raf = raf;
+		this.regions = regions;
+		this.length = length;
+	}
+
+	/**
+	 * @param file
+	 * @return the mapped file.
+	 * @throws IOException
+	 */
+	public static MappedFile open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long length = channel.size();
+			MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((length + REGION_SIZE - 1) >> REGION_SHIFT)];
+
+			for (int i = 0; i < regions.length; ++i) {
+				long start = (long) i << REGION_SHIFT;
+				regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, length - start));
+			}
+
+			return new MappedFile(raf, regions, length);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * @param position
+	 * @return the byte at position.
+	 */
+	public byte get(long position) {
+		return regions[(int) (position >> REGION_SHIFT)].get((int) (position & (REGION_SIZE - 1)));
+	}
+
+	/**
+	 * Copy the bytes of the line starting at position, without its line terminator.
+	 * 
+	 * @param position
+	 * @param dst
+	 *            receives at most dst.length bytes.
+	 * @return number of bytes copied.
+	 */
+	public int readLine(long position, byte[] dst) {
+		int count = 0;
+
+		for (long p = position; p < length && count < dst.length; ++p) {
+			byte b = get(p);
+			if (b == '\n') {
+				break;
+			}
+			dst[count++] = b;
+		}
+
+		if (count > 0 && dst[count - 1] == '\r') {
+			count--;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Compare the contents with another file, stopping at the first byte that differs.
+	 * 
+	 * @param other
+	 * @return true if both files have the same length and bytes.
+	 */
+	public boolean contentEquals(MappedFile other) {
+		if (length != other.length) {
+			return false;
+		}
+
+		// Equal lengths are split into regions of equal sizes.
+		for (int i = 0; i < regions.length; ++i) {
+			if (regions[i].duplicate().mismatch(other.regions[i].duplicate()) >= 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Feed the whole file to a digest without copying it to the heap.
+	 * 
+	 * @param digest
+	 */
+	public void update(MessageDigest digest) {
+		for (MappedByteBuffer region : regions) {
+			digest.update(region.duplicate());
+		}
+	}
+
+	/**
+	 * @return a new stream over the contents of the file. Streams are independent of each other and stay usable after
+	 *         {@link #close()}.
+	 */
+	public InputStream openStream() {
+		return new InputStream() {
+
+			private int region;
+			private ByteBuffer current = regions.length > 0 ? regions[0].duplicate() : null;
+
+			private boolean advance() {
+				while (current != null && !current.hasRemaining()) {
+					current = ++region < regions.length ? regions[region].duplicate() : null;
+				}
+				return current != null;
+			}
+
+			@Override
+			public int read() throws IOException {
+				return advance() ? current.get() & 0xff : -1;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0) {
+					return 0;
+				}
+				if (!advance()) {
+					return -1;
+				}
+
+				int count = Math.min(len, current.remaining());
+				current.get(b, off, count);
+				return count;
+			}
+
+			@Override
+			public int available() throws IOException {
+				return current == null ? 0 : current.remaining();
+			}
+		};
+	}
+
+	/**
+	 * Release the file. The mapped regions stay readable and are unmapped once they are garbage collected.
+	 */
+	public void close() {
+		try {
+			raf.close();
+		} catch (IOException e) {
+		}
+	}
+}
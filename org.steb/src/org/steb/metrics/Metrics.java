@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.metrics;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time of steb requests goes. One {@link LatencyHistogram} per phase of a request plus request and failure
+ * counters, shared by the listener, the dispatcher and the editor helpers. Listener restarts are timed as well.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class Metrics implements MetricsMBean {
+
+	public enum Phase {
+		/**
+		 * From accepting a connection to reading its first line.
+		 */
+		ACCEPT,
+		/**
+		 * Parsing a request line.
+		 */
+		PARSE,
+		/**
+		 * Finding the workspace resource for a file.
+		 */
+		RESOLVE,
+		/**
+		 * From handing requests to the UI thread until it runs them.
+		 */
+		UI_WAIT,
+		/**
+		 * IWorkbenchPage.openEditor().
+		 */
+		OPEN_EDITOR,
+		/**
+		 * From receiving a request until it is completed.
+		 */
+		REQUEST,
+		/**
+		 * Moving the listener when its settings change, until it accepts on its new address.
+		 */
+		RESTART
+	}
+
+	public static final String OBJECT_NAME = "org.steb:type=Metrics";
+
+	private static final Metrics DEFAULT = new Metrics();
+
+	private final Map<Phase, LatencyHistogram> histograms = new EnumMap<Phase, LatencyHistogram>(Phase.class);
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong queued = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	public Metrics() {
+		for (Phase phase : Phase.values()) {
+			histograms.put(phase, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * @return the metrics of this steb instance.
+	 */
+	public static Metrics getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param phase
+	 * @param startNanos
+	 *            System.nanoTime() when the phase started.
+	 */
+	public void record(Phase phase, long startNanos) {
+		histograms.get(phase).record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Count a completed request.
+	 * 
+	 * @param receivedNanos
+	 *            System.nanoTime() when the request was received.
+	 * @param failed
+	 */
+	public void completed(long receivedNanos, boolean failed) {
+		record(Phase.REQUEST, receivedNanos);
+		requests.incrementAndGet();
+		if (failed) {
+			failures.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Count a request queued for the UI thread.
+	 */
+	public void queued() {
+		queued.incrementAndGet();
+	}
+
+	/**
+	 * Count a request turned away because the queue was full.
+	 */
+	public void rejected() {
+		rejected.incrementAndGet();
+	}
+
+	public LatencyHistogram getHistogram(Phase phase) {
+		return histograms.get(phase);
+	}
+
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+
+		report.append(String.format(Locale.ROOT, "%-12s %10s %10s %10s %10s%n", "phase", "count", "p50(us)", "p99(us)", "max(us)"));
+		for (Phase phase : Phase.values()) {
+			LatencyHistogram histogram = histograms.get(phase);
+
+			report.append(String.format(Locale.ROOT, "%-12s %10d %10d %10d %10d%n", phase.name().toLowerCase(Locale.ROOT), histogram.getCount(),
+				histogram.getPercentile(50), histogram.getPercentile(99), histogram.getMax()));
+		}
+		report.append(String.format(Locale.ROOT, "requests %d, failed %d, queued %d, rejected %d", requests.get(), failures.get(), queued.get(), rejected.get()));
+
+		return report.toString();
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public long getQueued() {
+		return queued.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public long getCount(String phase) {
+		return histograms.get(Phase.valueOf(phase.toUpperCase(Locale.ROOT))).getCount();
+	}
+
+	public long getPercentileMicros(String phase, double percentile) {
+		return histograms.get(Phase.valueOf(phase.toUpperCase(Locale.ROOT))).getPercentile(percentile);
+	}
+
+	public void reset() {
+		for (LatencyHistogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+		requests.set(0);
+		failures.set(0);
+		queued.set(0);
+		rejected.set(0);
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.metrics;
+
+/**
+ * Management interface of {@link Metrics}, registered as "org.steb:type=Metrics".
+ * 
+ * @author kgilmer
+ * 
+ */
+public interface MetricsMBean {
+
+	/**
+	 * @return the table also returned by the -stats command.
+	 */
+	String getReport();
+
+	long getRequests();
+
+	long getFailures();
+
+	/**
+	 * @return number of requests that have been queued for the UI thread.
+	 */
+	long getQueued();
+
+	/**
+	 * @return number of requests answered busy because too many were already waiting.
+	 */
+	long getRejected();
+
+	/**
+	 * @param phase
+	 *            name of a {@link Metrics.Phase}.
+	 * @return number of durations recorded for phase.
+	 */
+	long getCount(String phase);
+
+	/**
+	 * @param phase
+	 *            name of a {@link Metrics.Phase}.
+	 * @param percentile
+	 *            between 0 and 100.
+	 * @return duration in microseconds.
+	 */
+	long getPercentileMicros(String phase, double percentile);
+
+	/**
+	 * Forget everything recorded so far.
+	 */
+	void reset();
+}
@@ -46,8 +46,34 @@ public class PreferenceConstants {
 	 */
 	public static final String LISTENER_ENABLED = "activePreference";
 
+	/**
+	 * Also listen on a Unix domain socket.
+	 */
+	public static final String UNIX_SOCKET_ENABLED = "unixSocketPreference";
+
+	/**
+	 * Files larger than this many megabytes open in the large file viewer.
+	 */
+	public static final String LARGE_FILE_THRESHOLD = "largeFilePreference";
+
+	/**
+	 * Comma separated names of folders that projects created by steb leave out of their root folder.
+	 */
+	public static final String P_RESOURCE_FILTERS = "P_RESOURCE_FILTERS";
+
+	/**
+	 * Folders excluded from new projects unless the user says otherwise: dependency caches, build output and version
+	 * control metadata.
+	 */
+	public static final String DEFAULT_RESOURCE_FILTERS = "node_modules,target,build,.git";
+
 	/**
 	 * Constant for editor ids to be ignored.
 	 */
 	public static final String P_EDITOR_OVERRIDES = "P_EDITOR_OVERRIDES";
+
+	/**
+	 * Editors that failed to open a kind of file, learned by steb.
+	 */
+	public static final String P_FAILED_EDITORS = "P_FAILED_EDITORS";
 }
@@ -47,6 +47,9 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 		IPreferenceStore store = Activator.getDefault().getPreferenceStore();
 		store.setDefault(PreferenceConstants.LISTENER_ENABLED, true);
 		store.setDefault(PreferenceConstants.LISTENER_PORT, "4404");
+		store.setDefault(PreferenceConstants.UNIX_SOCKET_ENABLED, false);
+		store.setDefault(PreferenceConstants.LARGE_FILE_THRESHOLD, 64);
+		store.setDefault(PreferenceConstants.P_RESOURCE_FILTERS, PreferenceConstants.DEFAULT_RESOURCE_FILTERS);
 	}
 
 }
@@ -31,9 +31,13 @@ package org.steb.preferences;
 import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
 import org.eclipse.jface.preference.IntegerFieldEditor;
+import org.eclipse.jface.preference.StringFieldEditor;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
 import org.steb.Activator;
@@ -64,6 +68,17 @@ public class PreferencePage extends FieldEditorPreferencePage implements IWorkbe
 		portEditor.getTextControl(getFieldEditorParent()).setLayoutData(gd);
 		addField(portEditor);
 		
+		addField(new BooleanFieldEditor(PreferenceConstants.UNIX_SOCKET_ENABLED, "Also listen on a &Unix domain socket", getFieldEditorParent()));
+		
+		IntegerFieldEditor largeFileEditor = new IntegerFieldEditor(PreferenceConstants.LARGE_FILE_THRESHOLD, "Use large file &viewer above (MB): ", getFieldEditorParent());
+		largeFileEditor.setValidRange(1, 1024 * 1024);
+		gd = new GridData();
+		gd.widthHint = 40;
+		largeFileEditor.getTextControl(getFieldEditorParent()).setLayoutData(gd);
+		addField(largeFileEditor);
+		
+		addField(new StringFieldEditor(PreferenceConstants.P_RESOURCE_FILTERS, "&Folders left out of new projects: ", getFieldEditorParent()));
+		
 		Label sep = new Label(getFieldEditorParent(), SWT.SEPARATOR | SWT.HORIZONTAL);
 		gd = new GridData(GridData.FILL_HORIZONTAL);
 		gd.horizontalSpan = 2;
@@ -72,6 +87,18 @@ public class PreferencePage extends FieldEditorPreferencePage implements IWorkbe
 		
 		addField(new EditorOverrideFieldEditor(PreferenceConstants.P_EDITOR_OVERRIDES, "Override Editors with System Default", getFieldEditorParent()));
 		
+		// Editors that failed once are replaced with the default editor until forgotten.
+		final Button forgetButton = new Button(getFieldEditorParent(), SWT.PUSH);
+		forgetButton.setText("Forget &failed editors");
+		forgetButton.setToolTipText("Try editors again that steb replaced with the default editor after they failed to open a file.");
+		forgetButton.setEnabled(Activator.getDefault().getEditorIdCache().getFailures().length() > 0);
+		forgetButton.addListener(SWT.Selection, new Listener() {
+
+			public void handleEvent(Event event) {
+				Activator.getDefault().forgetFailedEditors();
+				forgetButton.setEnabled(false);
+			}
+		});
 	}
 
 	/*
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.search;
+
+import org.eclipse.search.ui.text.Match;
+
+/**
+ * A line reported by a tool, such as a grep match or a compiler error.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class Hit extends Match {
+
+	private final int column;
+	private final String text;
+
+	/**
+	 * @param element
+	 *            IFile or, outside of the workspace, java.io.File.
+	 * @param line
+	 *            1-based.
+	 * @param column
+	 *            1-based, or 0 if not known.
+	 * @param text
+	 */
+	public Hit(Object element, int line, int column, String text) {
+		super(element, Match.UNIT_LINE, line - 1, 1);
+		this.column = column;
+		this.text = text;
+	}
+
+	/**
+	 * @return the 1-based line.
+	 */
+	public int getLine() {
+		return getOffset() + 1;
+	}
+
+	/**
+	 * @return the 1-based column, or 0 if not known.
+	 */
+	public int getColumn() {
+		return column;
+	}
+
+	public String getText() {
+		return text;
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.search;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.search.ui.NewSearchUI;
+import org.eclipse.search.ui.text.Match;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.PlatformUI;
+import org.steb.EclipseEditorHelper;
+
+/**
+ * Turns a stream of "path:line[:column]: text" records, as printed by grep -n and most compilers, into hits of a
+ * search shown in the Search view. Records are added as they arrive, the Search view updates itself in batches.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class HitStream {
+
+	private static final Pattern RECORD = Pattern.compile("(.+?):(\\d+)(?::(\\d+))?:\\s?(.*)");
+
+	private final File baseDirectory;
+	private final HitsSearchQuery query;
+
+	/**
+	 * Search result elements by path as received, most hits of a stream are in a few files.
+	 */
+	private final Map<String, Object> elements = new HashMap<String, Object>();
+	private boolean ended;
+
+	/**
+	 * Start a search in the Search view that shows the hits of this stream.
+	 * 
+	 * @param baseDirectory
+	 *            relative paths are resolved against it, may be null.
+	 */
+	public HitStream(File baseDirectory) {
+		this.baseDirectory = baseDirectory;
+		this.query = new HitsSearchQuery(baseDirectory == null ? "Hits" : "Hits in " + baseDirectory.getPath());
+
+		final Display display = PlatformUI.getWorkbench().getDisplay();
+		display.asyncExec(new Runnable() {
+
+			public void run() {
+				NewSearchUI.runQueryInBackground(query);
+			}
+		});
+	}
+
+	/**
+	 * @return true if the user stopped the search, further records are ignored.
+	 */
+	public boolean isCanceled() {
+		return query.isCanceled();
+	}
+
+	/**
+	 * Add the hits of some records to the search. Lines that are not records are skipped. Must not be called by more
+	 * than one thread at a time.
+	 * 
+	 * @param records
+	 */
+	public void add(List<String> records) {
+		if (ended || isCanceled()) {
+			return;
+		}
+
+		List<Match> hits = new ArrayList<Match>(records.size());
+		for (String record : records) {
+			Matcher matcher = RECORD.matcher(record);
+
+			if (matcher.matches()) {
+				try {
+					int line = Integer.parseInt(matcher.group(2));
+					int column = matcher.group(3) == null ? 0 : Integer.parseInt(matcher.group(3));
+
+					hits.add(new Hit(getElement(matcher.group(1)), line, column, matcher.group(4)));
+				} catch (NumberFormatException e) {
+					// Line number out of range, not a record.
+				}
+			}
+		}
+
+		if (!hits.isEmpty()) {
+			query.getResult().addMatches(hits.toArray(new Match[hits.size()]));
+		}
+	}
+
+	/**
+	 * The client has sent all records.
+	 */
+	public void end() {
+		if (!ended) {
+			ended = true;
+			query.finished();
+		}
+	}
+
+	/**
+	 * @param path
+	 * @return the workspace file at path, or the file itself if it is not in the workspace.
+	 */
+	private Object getElement(String path) {
+		Object element = elements.get(path);
+
+		if (element == null) {
+			File file = new File(path);
+			if (!file.isAbsolute() && baseDirectory != null) {
+				file = new File(baseDirectory, path);
+			}
+			file = file.toPath().normalize().toFile();
+
+			IFile workspaceFile = EclipseEditorHelper.getWorkspaceRelativeFile(file);
+			element = workspaceFile == null ? file : workspaceFile;
+			elements.put(path, element);
+		}
+
+		return element;
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.search;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.search.ui.ISearchQuery;
+import org.eclipse.search.ui.ISearchResult;
+
+/**
+ * A search whose matches are streamed in by a client rather than searched for. The query is running for as long as
+ * the client keeps sending; stopping it in the Search view tells the stream to stop.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class HitsSearchQuery implements ISearchQuery {
+
+	/**
+	 * How often a running query checks whether it was canceled.
+	 */
+	private static final long POLL_MILLIS = 200;
+
+	private final String label;
+	private final HitsSearchResult result;
+	private final CountDownLatch finished = new CountDownLatch(1);
+	private volatile boolean canceled;
+
+	public HitsSearchQuery(String label) {
+		this.label = label;
+		this.result = new HitsSearchResult(this);
+	}
+
+	public IStatus run(IProgressMonitor monitor) {
+		monitor.beginTask(label, IProgressMonitor.UNKNOWN);
+		try {
+			while (!finished.await(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (monitor.isCanceled()) {
+					canceled = true;
+					return Status.CANCEL_STATUS;
+				}
+			}
+		} catch (InterruptedException e) {
+			canceled = true;
+			return Status.CANCEL_STATUS;
+		} finally {
+			monitor.done();
+		}
+
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * The client has sent everything.
+	 */
+	void finished() {
+		finished.countDown();
+	}
+
+	/**
+	 * @return true if the user stopped the query.
+	 */
+	boolean isCanceled() {
+		return canceled;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public boolean canRerun() {
+		return false;
+	}
+
+	public boolean canRunInBackground() {
+		return true;
+	}
+
+	public ISearchResult getSearchResult() {
+		return result;
+	}
+
+	HitsSearchResult getResult() {
+		return result;
+	}
+}
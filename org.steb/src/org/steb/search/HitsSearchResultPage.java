@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2009, Ken Gilmer
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list 
+ * of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * 
+ * Neither the name Ken Gilmer nor the names of other contributors may be used 
+ * to endorse or promote products derived from this software without specific 
+ * prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED 
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR 
+ * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.steb.search;
+
+import java.io.File;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.viewers.ILabelProvider;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.jface.viewers.ITreeContentProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.OpenEvent;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.jface.viewers.TreeViewer;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.search.ui.text.AbstractTextSearchResult;
+import org.eclipse.search.ui.text.AbstractTextSearchViewPage;
+import org.eclipse.search.ui.text.Match;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.ISharedImages;
+import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.PlatformUI;
+import org.eclipse.ui.texteditor.ITextEditor;
+import org.steb.Activator;
+import org.steb.EclipseEditorHelper;
+
+/**
+ * Shows a {@link HitsSearchResult} as a tree of files and their hits. Files are added to the tree as their first hit
+ * arrives, so the page never has to rebuild the whole tree while a stream is running.
+ * 
+ * @author kgilmer
+ * 
+ */
+public class HitsSearchResultPage extends AbstractTextSearchViewPage {
+
+	private HitsContentProvider contentProvider;
+
+	public HitsSearchResultPage() {
+		super(AbstractTextSearchViewPage.FLAG_LAYOUT_TREE);
+	}
+
+	@Override
+	protected void configureTreeViewer(TreeViewer viewer) {
+		contentProvider = new HitsContentProvider(viewer);
+		viewer.setUseHashlookup(true);
+		viewer.setContentProvider(contentProvider);
+		viewer.setLabelProvider(new HitsLabelProvider());
+	}
+
+	/**
+	 * Never called, the page is created with {@link AbstractTextSearchViewPage#FLAG_LAYOUT_TREE} only, so the user
+	 * cannot switch to a table.
+	 */
+	@Override
+	protected void configureTableViewer(TableViewer viewer) {
+	}
+
+	@Override
+	protected void elementsChanged(Object[] objects) {
+		if (contentProvider != null) {
+			contentProvider.elementsChanged(objects);
+		}
+	}
+
+	@Override
+	protected void clear() {
+		getViewer().refresh();
+	}
+
+	@Override
+	protected void handleOpen(OpenEvent event) {
+		Object selected = ((IStructuredSelection) event.getSelection()).getFirstElement();
+
+		if (selected instanceof Hit) {
+			Hit hit = (Hit) selected;
+			try {
+				showMatch(hit, hit.getOffset(), hit.getLength(), true);
+			} catch (PartInitException e) {
+				Activator.getDefault().getLog().log(e.getStatus());
+			}
+			return;
+		}
+
+		super.handleOpen(event);
+	}
+
+	@Override
+	protected void showMatch(Match match, int currentOffset, int currentLength, boolean activate) throws PartInitException {
+		Object element = match.getElement();
+		File file = element instanceof IFile ? ((IFile) element).getLocation().toFile() : (File) element;
+
+		IEditorPart editor;
+		try {
+			editor = EclipseEditorHelper.openEclipseEditorForFile(file, false, PlatformUI.getWorkbench(), activate);
+		} catch (Exception e) {
+			throw new PartInitException("Unable to open editor for file: " + file.getAbsolutePath(), e);
+		}
+
+		if (editor instanceof ITextEditor) {
+			selectLine((ITextEditor) editor, currentOffset, match instanceof Hit ? ((Hit) match).getColumn() : 0);
+		}
+	}
+
+	/**
+	 * @param editor
+	 * @param line
+	 *            0-based.
+	 * @param column
+	 *            1-based, 0 selects the whole line.
+	 */
+	private static void selectLine(ITextEditor editor, int line, int column) {
+		IDocument document = editor.getDocumentProvider().getDocument(editor.getEditorInput());
+		if (document == null) {
+			return;
+		}
+
+		try {
+			IRegion region = document.getLineInformation(line);
+
+			if (column > 0) {
+				editor.selectAndReveal(region.getOffset() + Math.min(column - 1, region.getLength()), 0);
+			} else {
+				editor.selectAndReveal(region.getOffset(), region.getLength());
+			}
+		} catch (BadLocationException e) {
+			// The file is shorter than the tool thought, leave the editor at the top.
+		}
+	}
+
+	/**
+	 * Files are the roots of the tree, their hits the children.
+	 */
+	private static class HitsContentProvider implements ITreeContentProvider {
+
+		private final TreeViewer viewer;
+		private AbstractTextSearchResult result;
+
+		HitsContentProvider(TreeViewer viewer) {
+			this.viewer = viewer;
+		}
+
+		public Object[] getElements(Object inputElement) {
+			return result == null ? new Object[0] : result.getElements();
+		}
+
+		public Object[] getChildren(Object parentElement) {
+			if (result == null || parentElement instanceof Hit) {
+				return new Object[0];
+			}
+
+			return result.getMatches(parentElement);
+		}
+
+		public Object getParent(Object element) {
+			return element instanceof Hit ? ((Hit) element).getElement() : null;
+		}
+
+		public boolean hasChildren(Object element) {
+			return !(element instanceof Hit);
+		}
+
+		public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+			result = newInput instanceof AbstractTextSearchResult ? (AbstractTextSearchResult) newInput : null;
+		}
+
+		public void dispose() {
+		}
+
+		/**
+		 * Add new files to the tree and refresh the ones that got more hits.
+		 * 
+		 * @param elements
+		 */
+		void elementsChanged(Object[] elements) {
+			if (result == null) {
+				return;
+			}
+
+			for (Object element : elements) {
+				if (result.getMatchCount(element) == 0) {
+					viewer.remove(element);
+				} else if (viewer.testFindItem(element) == null) {
+					viewer.add(result, element);
+				} else {
+					viewer.refresh(element);
+				}
+			}
+		}
+	}
+
+	private class HitsLabelProvider extends LabelProvider implements ILabelProvider {
+
+		@Override
+		public String getText(Object element) {
+			if (element instanceof Hit) {
+				Hit hit = (Hit) element;
+				return hit.getLine() + ": " + hit.getText().trim();
+			}
+
+			String name = element instanceof IFile ? ((IFile) element).getFullPath().makeRelative().toString() : ((File) element).getPath();
+			AbstractTextSearchResult result = getInput();
+
+			return result == null ? name : name + " (" + result.getMatchCount(element) + ")";
+		}
+
+		@Override
+		public Image getImage(Object element) {
+			if (element instanceof Hit) {
+				return null;
+			}
+
+			return PlatformUI.getWorkbench().getSharedImages().getImage(ISharedImages.IMG_OBJ_FILE);
+		}
+	}
+}